@@ -0,0 +1,249 @@
+package com.gscoder.androidglescamera2;
+
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans converted frames out to several {@link FrameAnalyzer}s, each with its own rate, executor
+ * and {@link FrameFormat}, so a fast detector can run on every frame while a heavy classifier
+ * runs a few times a second from the same stream.
+ *
+ * Every frame is converted once and the same {@link FrameBuffer} is handed, read-only, to all
+ * analyzers that are due. An analyzer still busy with an earlier frame is skipped for this one
+ * rather than queued, so a slow analyzer never holds back a fast one; it only keeps the buffer
+ * it works on out of the pool.
+ *
+ * Analyzers registered without an executor get a thread of their own, started on the first
+ * frame they are given and ended by {@link #stop}; executors passed to {@link #register} stay
+ * the caller's to shut down.
+ */
+public class AnalyzerDispatcher {
+    private static final String TAG = AnalyzerDispatcher.class.getSimpleName();
+
+    private final CopyOnWriteArrayList<Registration> mRegistrations = new CopyOnWriteArrayList<Registration>();
+
+    /**
+     * A registered analyzer and its counters.
+     */
+    public static class Registration {
+        private final FrameAnalyzer mAnalyzer;
+        private final FrameFormat mFormat;
+        private final long mPeriodNs;
+        // The caller's executor, or null to run on mOwnedExecutor.
+        private final Executor mExecutor;
+        // Created for this registration when first needed, shut down by stop and unregister.
+        private ExecutorService mOwnedExecutor;
+        private boolean mRemoved;
+
+        private final AtomicBoolean mBusy = new AtomicBoolean();
+        // Timestamp from which the next frame is due, touched only by the dispatching thread.
+        private long mNextDue = Long.MIN_VALUE;
+
+        private final AtomicLong mAnalyzedCount = new AtomicLong();
+        private final AtomicLong mSkippedCount = new AtomicLong();
+        private final AtomicLong mFailedCount = new AtomicLong();
+        private volatile long mLastDurationNs;
+
+        private Registration(FrameAnalyzer analyzer, float fps, Executor executor, FrameFormat format) {
+            mAnalyzer = analyzer;
+            mFormat = format;
+            mPeriodNs = fps > 0 ? (long) (1000000000L / fps) : 0;
+            mExecutor = executor;
+        }
+
+        private synchronized Executor getExecutor() {
+            if (mExecutor != null) {
+                return mExecutor;
+            }
+            if (mRemoved) {
+                // Dispatched while being unregistered, do not start a thread nobody ends.
+                throw new RejectedExecutionException("Analyzer was unregistered");
+            }
+            if (mOwnedExecutor == null) {
+                mOwnedExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, TAG + "-" + mAnalyzer.getClass().getSimpleName());
+                    }
+                });
+            }
+            return mOwnedExecutor;
+        }
+
+        /**
+         * Lets the dedicated thread exit once the frame it is analyzing is done. A later frame
+         * starts a new one.
+         */
+        private synchronized void shutdownOwnedExecutor(boolean removed) {
+            mRemoved |= removed;
+            if (mOwnedExecutor != null) {
+                mOwnedExecutor.shutdown();
+                mOwnedExecutor = null;
+            }
+        }
+
+        boolean isDue(long timestamp) {
+            return timestamp >= mNextDue;
+        }
+
+        /**
+         * Advances the schedule past {@code timestamp}. Keeps the slots evenly spaced while the
+         * frame rate allows, and restarts them from this frame after a gap.
+         */
+        void schedule(long timestamp) {
+            if (mNextDue == Long.MIN_VALUE || timestamp - mNextDue >= mPeriodNs) {
+                mNextDue = timestamp + mPeriodNs;
+            } else {
+                mNextDue += mPeriodNs;
+            }
+        }
+
+        private void run(final FrameBuffer frame) {
+            final long start = System.nanoTime();
+            try {
+                mAnalyzer.analyze(frame);
+                mAnalyzedCount.incrementAndGet();
+            } catch (RuntimeException e) {
+                mFailedCount.incrementAndGet();
+                Log.e(TAG, e.getMessage(), e);
+            } finally {
+                mLastDurationNs = System.nanoTime() - start;
+                mBusy.set(false);
+                frame.release();
+            }
+        }
+
+        public FrameAnalyzer getAnalyzer() {
+            return mAnalyzer;
+        }
+
+        public FrameFormat getFormat() {
+            return mFormat;
+        }
+
+        public long getAnalyzedCount() {
+            return mAnalyzedCount.get();
+        }
+
+        /**
+         * Frames that were due but skipped because the analyzer was still busy or the frame
+         * was not available in its format.
+         */
+        public long getSkippedCount() {
+            return mSkippedCount.get();
+        }
+
+        public long getFailedCount() {
+            return mFailedCount.get();
+        }
+
+        /**
+         * Duration of the most recent {@link FrameAnalyzer#analyze} call, in nanoseconds.
+         */
+        public long getLastDurationNs() {
+            return mLastDurationNs;
+        }
+    }
+
+    /**
+     * Registers {@code analyzer}.
+     *
+     * @param fps      Frames per second it is given at most, 0 for every frame.
+     * @param executor Where it runs; null for a dedicated thread owned by this dispatcher.
+     * @param format   Format the frames are converted to for it.
+     */
+    public Registration register(FrameAnalyzer analyzer, float fps, Executor executor, FrameFormat format) {
+        if (fps < 0) {
+            throw new IllegalArgumentException("fps must not be negative, was " + fps);
+        }
+        final Registration registration = new Registration(analyzer, fps, executor, format);
+        mRegistrations.add(registration);
+        return registration;
+    }
+
+    /**
+     * Removes a registration. A frame it is analyzing finishes first; a dedicated thread exits
+     * after that.
+     */
+    public void unregister(Registration registration) {
+        if (mRegistrations.remove(registration)) {
+            registration.shutdownOwnedExecutor(true);
+        }
+    }
+
+    public void unregisterAll() {
+        for (Registration registration : mRegistrations) {
+            unregister(registration);
+        }
+    }
+
+    /**
+     * Ends the dedicated analyzer threads once their current frames are done, keeping the
+     * registrations. Call when no more frames will be dispatched for a while; the threads are
+     * started again by the next {@link #dispatch}.
+     */
+    public void stop() {
+        for (Registration registration : mRegistrations) {
+            registration.shutdownOwnedExecutor(false);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mRegistrations.isEmpty();
+    }
+
+    /**
+     * Whether an idle analyzer wants {@code format} for a frame captured at {@code timestamp},
+     * so the converter produces that format only when it will be used.
+     */
+    public boolean needs(FrameFormat format, long timestamp) {
+        for (Registration registration : mRegistrations) {
+            if (registration.mFormat == format && registration.isDue(timestamp) && !registration.mBusy.get()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands {@code frame} to every analyzer that is due and idle, each on its own executor.
+     * Never blocks; every analyzer given the frame holds a reference until it returns.
+     * Must be called from one thread at a time.
+     */
+    public void dispatch(final FrameBuffer frame) {
+        final long timestamp = frame.getTimestamp();
+        for (final Registration registration : mRegistrations) {
+            if (!registration.isDue(timestamp)) {
+                continue;
+            }
+            if (!frame.hasFormat(registration.mFormat) || !registration.mBusy.compareAndSet(false, true)) {
+                registration.mSkippedCount.incrementAndGet();
+                continue;
+            }
+            registration.schedule(timestamp);
+
+            frame.retain();
+            try {
+                registration.getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        registration.run(frame);
+                    }
+                });
+            } catch (RuntimeException e) {
+                // Rejected, for example by an executor that was shut down.
+                registration.mFailedCount.incrementAndGet();
+                registration.mBusy.set(false);
+                frame.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.gscoder.androidglescamera2;
+
+/**
+ * What a bounded frame queue does with a new frame when it is full.
+ */
+public enum BackpressurePolicy {
+    /** Evict the oldest queued frame to make room; favors latency. */
+    DROP_OLDEST,
+    /** Discard the new frame; favors finishing frames already queued. */
+    DROP_NEWEST,
+    /** Wait for room, slowing the producer down to the consumer's pace; drops nothing. */
+    BLOCK
+}
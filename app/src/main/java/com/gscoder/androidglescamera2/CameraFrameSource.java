@@ -0,0 +1,99 @@
+package com.gscoder.androidglescamera2;
+
+import android.media.Image;
+import android.media.ImageReader;
+import android.util.Log;
+
+/**
+ * Delivers the frames of the camera preview reader, see {@link CameraHandler}.
+ *
+ * The camera itself is opened and closed with the view; starting and stopping this source
+ * only connects and disconnects the listener. Images arriving while stopped, or faster than
+ * the optional frame rate limit, are closed right away. Under a limit the delivered frames
+ * follow an even schedule, so a 30 fps camera limited to 12 fps delivers two of every five
+ * frames rather than every third.
+ */
+public class CameraFrameSource implements FrameSource, ImageReader.OnImageAvailableListener {
+    private static final String TAG = CameraFrameSource.class.getSimpleName();
+
+    private final YuvFrame mFrame = new YuvFrame();
+    // Held for the whole callback, so stop() returns only once no frame is being delivered.
+    private final Object mLock = new Object();
+    private OnYuvFrameAvailableListener mListener;
+    private volatile long mMinFrameIntervalNs;
+    private long mLastTimestamp = Long.MIN_VALUE;
+    private long mNextDue = Long.MIN_VALUE;
+
+    /**
+     * Delivers at most {@code fps} frames per second, or every frame when {@code fps} is 0.
+     */
+    public void setMaxFrameRate(float fps) {
+        if (fps < 0) {
+            throw new IllegalArgumentException("fps must not be negative, was " + fps);
+        }
+        mMinFrameIntervalNs = fps > 0 ? (long) (1e9 / fps) : 0;
+    }
+
+    @Override
+    public void start(OnYuvFrameAvailableListener listener) {
+        synchronized (mLock) {
+            mLastTimestamp = Long.MIN_VALUE;
+            mNextDue = Long.MIN_VALUE;
+            mListener = listener;
+        }
+    }
+
+    /**
+     * Disconnects the listener, waiting for a frame being delivered to it to finish.
+     */
+    @Override
+    public void stop() {
+        synchronized (mLock) {
+            mListener = null;
+        }
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        final Image image = reader.acquireLatestImage();
+        if (image == null) {
+            return;
+        }
+
+        synchronized (mLock) {
+            deliver(image);
+        }
+    }
+
+    private void deliver(Image image) {
+        try {
+            final OnYuvFrameAvailableListener listener = mListener;
+            if (listener == null) {
+                return;
+            }
+
+            final long timestamp = image.getTimestamp();
+            final long framePeriod = mLastTimestamp != Long.MIN_VALUE ? timestamp - mLastTimestamp : 0;
+            mLastTimestamp = timestamp;
+            final long minInterval = mMinFrameIntervalNs;
+            if (minInterval > 0 && mNextDue != Long.MIN_VALUE) {
+                // Half a camera frame of slack, so jitter does not push a frame that is on time
+                // to the next one.
+                if (timestamp + framePeriod / 2 < mNextDue) {
+                    return;
+                }
+                mNextDue = timestamp - mNextDue >= minInterval ? timestamp + minInterval : mNextDue + minInterval;
+            } else {
+                mNextDue = timestamp + minInterval;
+            }
+
+            // Convert straight from the plane buffers, the image is closed right after.
+            listener.onYuvFrameAvailable(ImageUtils.wrapImage(image, mFrame));
+        } catch (final Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            mFrame.clear();
+            image.close();
+        }
+    }
+}
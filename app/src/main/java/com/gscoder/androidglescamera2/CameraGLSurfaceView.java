@@ -4,11 +4,8 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
-import android.media.Image;
-import android.media.ImageReader;
+import android.graphics.Rect;
 import android.opengl.GLSurfaceView;
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.SystemClock;
 import android.os.Trace;
 import android.util.AttributeSet;
@@ -16,24 +13,52 @@ import android.util.Log;
 import android.util.Size;
 import android.view.SurfaceHolder;
 
-import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 
-public class CameraGLSurfaceView extends GLSurfaceView implements ImageReader.OnImageAvailableListener {
+public class CameraGLSurfaceView extends GLSurfaceView implements FrameSource.OnYuvFrameAvailableListener {
     private static final String TAG = CameraGLSurfaceView.class.getSimpleName();
 
+    // A frame in every stage and queue of the default pipeline, plus one on screen.
+    private static final int DEFAULT_FRAME_BUFFERS = 6;
+
     private CameraViewRenderer mCameraViewRenderer;
     private CameraHandler mCameraHandler;
 
-    private long lastProcessingTimeMs;
-    private byte[][] yuvBytes;
-    private int[] rgbBytes = null;
-    private boolean computing;
-    private Handler handler;
-    private HandlerThread handlerThread;
+    private volatile long lastProcessingTimeMs;
+    private final FrameMetrics frameMetrics = new FrameMetrics();
+    private final StartupTimeline startupTimeline = new StartupTimeline();
+    private SpscRing.WaitStrategy handoffWaitStrategy = SpscRing.WaitStrategy.PARK;
+    private final CameraFrameSource cameraFrameSource = new CameraFrameSource();
+    private FrameSource frameSource = cameraFrameSource;
+    private FramePipeline pipeline;
+    private final int[] queueCapacities = {1, 1, 1};
+    private final BackpressurePolicy[] queuePolicies = {
+            BackpressurePolicy.DROP_OLDEST, BackpressurePolicy.DROP_OLDEST, BackpressurePolicy.DROP_OLDEST
+    };
     private Size previewSize = null;
-    private Bitmap rgbFrameBitmap = null;
+    private volatile FrameBufferPool frameBufferPool = null;
+    private volatile FrameBuffer deliveredFrame = null;
+    private int conversionThreads = 1;
+    private int processingThreads = 1;
+    private volatile ParallelYuvConverter yuvConverter = null;
+    private volatile YuvToRgbKernel conversionKernel = YuvToRgbKernels.DEFAULT;
+    private volatile FrameFormat frameFormat = FrameFormat.ARGB_8888;
+    private volatile int analysisDownscale = 1;
+    private volatile Size analysisSize = null;
+    private YuvDownscaler downscaler = null;
+    private int downscalerSrcWidth;
+    private int downscalerSrcHeight;
+    private volatile MotionDetector motionDetector = null;
+    private volatile FrameRateGovernor frameRateGovernor = null;
+    private volatile Rect regionOfInterest = null;
+    private final Rect frameRegion = new Rect();
+    private volatile boolean collectFrameStats = false;
+    private volatile YuvRecorder frameRecorder = null;
+    private final AnalyzerDispatcher analyzers = new AnalyzerDispatcher();
 
     private OnBitmapAvailableListener mOnBitmapAvailableListener = null;
+    private OnLumaAvailableListener mOnLumaAvailableListener = null;
+    private OnFrameAvailableListener mOnFrameAvailableListener = null;
 
     public CameraGLSurfaceView(Context context, boolean syncPreviewAndImageProcess, Size desiredResolution) {
         super ( context);
@@ -47,25 +72,27 @@ public class CameraGLSurfaceView extends GLSurfaceView implements ImageReader.On
         Boolean syncPreviewAndImageProcess = attrs.getBoolean(R.styleable.CameraGLSurfaceView_syncPreviewAndImageProcess, false);
         Integer desiredWidth = attrs.getInt(R.styleable.CameraGLSurfaceView_desiredWidth, 640);
         Integer desiredHeight = attrs.getInt(R.styleable.CameraGLSurfaceView_desiredHeight, 480);
+        conversionThreads = attrs.getInt(R.styleable.CameraGLSurfaceView_conversionThreads, 1);
+        analysisDownscale = attrs.getInt(R.styleable.CameraGLSurfaceView_analysisDownscale, 1);
+        int frameBufferCount = attrs.getInt(R.styleable.CameraGLSurfaceView_frameBufferCount, DEFAULT_FRAME_BUFFERS);
+        processingThreads = attrs.getInt(R.styleable.CameraGLSurfaceView_processingThreads, 1);
         attrs.recycle();
 
         init(syncPreviewAndImageProcess, new Size(desiredWidth, desiredHeight));
+        setFrameBufferCount(frameBufferCount);
     }
 
     private void init(boolean syncPreviewAndImageProcess, Size desiredResolution) {
         previewSize = new Size(desiredResolution.getWidth(), desiredResolution.getHeight());
 
-        mCameraHandler = new CameraHandler(this, previewSize);
+        mCameraHandler = new CameraHandler(cameraFrameSource, previewSize, startupTimeline);
         mCameraViewRenderer = new CameraViewRenderer(this, mCameraHandler);
-        mCameraViewRenderer.setSyncPreviewAndImageProcess(false);
 
         setEGLContextClientVersion ( 2 );
         setRenderer (mCameraViewRenderer);
         setRenderMode ( GLSurfaceView.RENDERMODE_WHEN_DIRTY );
 
-        yuvBytes = new byte[3][];
-        rgbBytes = new int[previewSize.getWidth() * previewSize.getHeight()];
-        rgbFrameBitmap = Bitmap.createBitmap(previewSize.getWidth(), previewSize.getHeight(), Bitmap.Config.ARGB_8888);
+        frameBufferPool = new FrameBufferPool(DEFAULT_FRAME_BUFFERS);
 
         setSyncPreviewAndImageProcess(syncPreviewAndImageProcess);
     }
@@ -88,31 +115,50 @@ public class CameraGLSurfaceView extends GLSurfaceView implements ImageReader.On
 
     @Override
     public void onResume() {
+        startupTimeline.start();
+        // Starts opening the camera before the GL thread is woken up to create the surface.
+        mCameraViewRenderer.onResume();
         super.onResume();
 
-        handlerThread = new HandlerThread("inference");
-        handlerThread.start();
-        handler = new Handler(handlerThread.getLooper());
+        if (conversionThreads > 1) {
+            yuvConverter = new ParallelYuvConverter(conversionThreads);
+        }
 
-        mCameraViewRenderer.onResume();
+        startPipeline();
+        frameSource.start(this);
+    }
+
+    /**
+     * Opens the camera if it is not open yet. {@link #onResume} already does so when the camera
+     * permission is granted; call this once a missing permission has been granted.
+     */
+    public void openCamera() {
+        mCameraHandler.openCamera(getContext());
     }
 
     @Override
     public void onPause() {
+        frameSource.stop();
         mCameraViewRenderer.onPause();
 
-        handlerThread.quitSafely();
-        try {
-            handlerThread.join();
-            handlerThread = null;
-            handler = null;
-        } catch (final InterruptedException e) {
-            Log.e(TAG, e.getMessage());
+        stopPipeline();
+        Log.i(TAG, "Frame metrics: " + frameMetrics);
+
+        if (yuvConverter != null) {
+            yuvConverter.shutdown();
+            yuvConverter = null;
         }
 
         super.onPause();
     }
 
+    /**
+     * In sync mode the preview shows the camera frame each finished analysis was computed on,
+     * matched by sensor timestamp, so overlays line up with the image. Preview frames are held
+     * on the GPU meanwhile, see {@link #setPreviewHoldFrames}; the display then updates at the
+     * analysis rate and trails the camera by the analysis latency. Needs the camera as the
+     * frame source.
+     */
     public void setSyncPreviewAndImageProcess (boolean value) {
         mCameraViewRenderer.setSyncPreviewAndImageProcess(value);
     }
@@ -121,97 +167,587 @@ public class CameraGLSurfaceView extends GLSurfaceView implements ImageReader.On
         return mCameraViewRenderer.getSyncPreviewAndImageProcess();
     }
 
-    protected synchronized void runInBackground(final Runnable r) {
-        if (handler != null) {
-            handler.post(r);
+    /**
+     * Sets how many preview frames sync mode holds while their analysis runs, enough to cover
+     * the analysis latency at the camera frame rate.
+     */
+    public void setPreviewHoldFrames(int frames) {
+        mCameraViewRenderer.setPreviewHoldFrames(frames);
+    }
+
+    /**
+     * How well sync mode matched analyses to preview frames, or null before it showed any.
+     */
+    public PreviewHoldQueue getPreviewHoldQueue() {
+        return mCameraViewRenderer.getPreviewHoldQueue();
+    }
+
+    /**
+     * Takes frames for analysis from {@code source} instead of the camera, for example a
+     * {@link ReplayFrameSource} or {@link SyntheticFrameSource}. The camera keeps feeding the
+     * preview. Pass null to analyze camera frames again.
+     */
+    public synchronized void setFrameSource(FrameSource source) {
+        if (source == null) {
+            source = cameraFrameSource;
         }
+        if (source == frameSource) {
+            return;
+        }
+        final boolean running = pipeline != null;
+        if (running) {
+            frameSource.stop();
+        }
+        frameSource = source;
+        if (running) {
+            frameSource.start(this);
+        }
+    }
+
+    public FrameSource getFrameSource() {
+        return frameSource;
+    }
+
+    /**
+     * Limits the rate at which camera frames are analyzed, 0 for no limit.
+     */
+    public void setMaxAnalysisFrameRate(float fps) {
+        cameraFrameSource.setMaxFrameRate(fps);
+    }
+
+    /**
+     * Sets the number of threads used to convert each frame to ARGB, including the camera thread
+     * itself. Keep it below the core count so conversion does not compete with inference threads.
+     */
+    public void setConversionThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+        }
+        conversionThreads = threads;
+
+        final ParallelYuvConverter previous = yuvConverter;
+        if (previous != null || pipeline != null) {
+            yuvConverter = threads > 1 ? new ParallelYuvConverter(threads) : null;
+        }
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    public int getConversionThreads() {
+        return conversionThreads;
+    }
+
+    /**
+     * Sets the number of frames processed in parallel, each on its own thread. Results still
+     * reach the listeners and the screen in capture order. Every extra thread keeps another
+     * frame in flight, so add a {@link #setFrameBufferCount frame buffer} for each. Takes effect
+     * on the next {@link #onResume}.
+     */
+    public void setProcessingThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+        }
+        processingThreads = threads;
+        final FrameRateGovernor governor = frameRateGovernor;
+        if (governor != null) {
+            governor.setParallelism(threads);
+        }
+    }
+
+    public int getProcessingThreads() {
+        return processingThreads;
+    }
+
+    /**
+     * Sets the kernel used to turn YUV samples into ARGB pixels, see {@link YuvToRgbKernels}.
+     */
+    public void setConversionKernel(YuvToRgbKernel kernel) {
+        if (kernel == null) {
+            throw new IllegalArgumentException("kernel must not be null");
+        }
+        conversionKernel = kernel;
+    }
+
+    public YuvToRgbKernel getConversionKernel() {
+        return conversionKernel;
     }
 
-    protected void fillBytes(final Image.Plane[] planes, final byte[][] yuvBytes) {
-        // Because of the variable row stride it's not possible to know in
-        // advance the actual necessary dimensions of the yuv planes.
-        for (int i = 0; i < planes.length; ++i) {
-            final ByteBuffer buffer = planes[i].getBuffer();
-            if (yuvBytes[i] == null) {
-                Log.d(TAG, String.format("Initializing buffer %d at size %d", i, buffer.capacity()));
-                yuvBytes[i] = new byte[buffer.capacity()];
+    /**
+     * Selects what each frame is converted to. In {@link FrameFormat#LUMA} mode only the Y plane
+     * is read and frames go to the {@link OnLumaAvailableListener} instead of the bitmap one.
+     */
+    public void setFrameFormat(FrameFormat format) {
+        if (format == null) {
+            throw new IllegalArgumentException("format must not be null");
+        }
+        frameFormat = format;
+    }
+
+    public FrameFormat getFrameFormat() {
+        return frameFormat;
+    }
+
+    /**
+     * Analyzes frames at {@code 1 / factor} of the preview resolution in each dimension. The
+     * reduction is done on the YUV planes, so conversion cost drops with the pixel count.
+     * Overrides any size set with {@link #setAnalysisSize}.
+     */
+    public void setAnalysisDownscale(int factor) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("factor must be at least 1, was " + factor);
+        }
+        analysisSize = null;
+        analysisDownscale = factor;
+    }
+
+    /**
+     * Analyzes frames at an arbitrary size no larger than the preview, or at the preview size
+     * when {@code size} is null. Frames of another source smaller than {@code size} are
+     * analyzed at their own size in the dimension that does not fit.
+     *
+     * @throws IllegalArgumentException if a dimension is not positive or exceeds the camera
+     *                                  preview.
+     */
+    public void setAnalysisSize(Size size) {
+        if (size != null) {
+            if (size.getWidth() <= 0 || size.getHeight() <= 0) {
+                throw new IllegalArgumentException("Invalid analysis size " + size.getWidth() + "x" + size.getHeight());
             }
-            buffer.get(yuvBytes[i]);
+            if (!isInEditMode()) {
+                final Size preview = mCameraHandler.getPreviewSize();
+                if (size.getWidth() > preview.getWidth() || size.getHeight() > preview.getHeight()) {
+                    throw new IllegalArgumentException("Analysis size " + size.getWidth() + "x" + size.getHeight()
+                            + " exceeds the preview size " + preview.getWidth() + "x" + preview.getHeight());
+                }
+            }
+        }
+        analysisDownscale = 1;
+        analysisSize = size;
+    }
+
+    /**
+     * Lets {@code governor} choose the analysis rate, the analysis resolution and the camera
+     * frame rate from the measured processing time, overriding
+     * {@link #setMaxAnalysisFrameRate}, {@link #setAnalysisSize} and
+     * {@link #setAnalysisDownscale}. Frames are then skipped on an even schedule before they
+     * are copied. Pass null to analyze every camera frame at the configured size again.
+     */
+    public void setFrameRateGovernor(FrameRateGovernor governor) {
+        if (governor != null) {
+            governor.setParallelism(processingThreads);
+            applyFrameRate(governor);
+        } else {
+            cameraFrameSource.setMaxFrameRate(0);
+        }
+        frameRateGovernor = governor;
+    }
+
+    public FrameRateGovernor getFrameRateGovernor() {
+        return frameRateGovernor;
+    }
+
+    private void applyFrameRate(FrameRateGovernor governor) {
+        cameraFrameSource.setMaxFrameRate(governor.getFrameRate());
+        mCameraHandler.setTargetFrameRate(governor.getCameraFrameRate());
+    }
+
+    /**
+     * Only processes frames whose luma differs from the last processed frame, as decided by
+     * {@code detector}. Pass null to process every frame.
+     *
+     * A passing frame the pipeline turns away on arrival, because the convert queue is full,
+     * does not become the reference, so its motion still lets the next frame through. A frame
+     * that was queued and dropped later, for a newer frame or for lack of a free buffer, does
+     * become the reference: the newer frame it gave way to passed the gate itself, and an
+     * exhausted pool means analysis lags anyway.
+     */
+    public void setMotionDetector(MotionDetector detector) {
+        motionDetector = detector;
+    }
+
+    public MotionDetector getMotionDetector() {
+        return motionDetector;
+    }
+
+    /**
+     * Converts only {@code roi}, in preview frame coordinates, instead of the whole frame. The
+     * bitmap or luma buffer handed to the listeners then covers just that rectangle, at full
+     * resolution, so any analysis downscale is ignored. Pass null to convert whole frames again.
+     *
+     * Safe to call from any thread, including the processing thread between frames. The
+     * rectangle is copied and picked up by the next frame the camera delivers.
+     */
+    public void setRegionOfInterest(Rect roi) {
+        regionOfInterest = roi != null ? new Rect(roi) : null;
+    }
+
+    /**
+     * Returns a copy of the current region of interest, or null when whole frames are converted.
+     */
+    public Rect getRegionOfInterest() {
+        final Rect roi = regionOfInterest;
+        return roi != null ? new Rect(roi) : null;
+    }
+
+    /**
+     * Collects {@link FrameStats} while converting each frame to ARGB, readable with
+     * {@link #getFrameStats} from the bitmap listener. Only whole frames at preview resolution
+     * are measured; with a region of interest or an analysis downscale the stats stay empty.
+     */
+    public void setFrameStatsEnabled(boolean enabled) {
+        collectFrameStats = enabled;
+    }
+
+    /**
+     * Statistics of the frame currently handed to the listeners, also available from
+     * {@link FrameBuffer#getStats}. Only stable during the listener callbacks.
+     */
+    public FrameStats getFrameStats() {
+        final FrameBuffer frame = deliveredFrame;
+        return frame != null ? frame.getStats() : null;
+    }
+
+    /**
+     * Sets the number of frame buffers converted frames are rotated through. Each queued frame
+     * and each listener that retains a frame keeps one buffer busy; when none is free, frames
+     * are dropped and counted, see {@link #getFrameBufferPool}. Takes effect on the next
+     * {@link #onResume}.
+     */
+    public void setFrameBufferCount(int count) {
+        if (frameBufferPool != null && frameBufferPool.getSize() == count) {
+            return;
         }
+        // Buffers still held keep returning to the old pool, which is then dropped.
+        frameBufferPool = new FrameBufferPool(count);
     }
 
+    public FrameBufferPool getFrameBufferPool() {
+        return frameBufferPool;
+    }
+
+    /**
+     * Records every frame the camera delivers into {@code recorder}, including frames skipped
+     * while the previous one is still being processed. Pass null to stop recording; closing
+     * the recorder is left to the caller.
+     */
+    public void setFrameRecorder(YuvRecorder recorder) {
+        frameRecorder = recorder;
+    }
+
+    private YuvDownscaler getDownscaler(YuvFrame frame) {
+        final Size size = analysisSize;
+        final int factor = analysisDownscale;
+        final FrameRateGovernor governor = frameRateGovernor;
+        final int srcWidth = frame.getWidth();
+        final int srcHeight = frame.getHeight();
+        final int dstWidth;
+        final int dstHeight;
+        if (governor != null) {
+            final float scale = governor.getScale();
+            dstWidth = Math.max(1, Math.round(srcWidth * scale));
+            dstHeight = Math.max(1, Math.round(srcHeight * scale));
+        } else {
+            dstWidth = size != null ? Math.min(size.getWidth(), srcWidth) : Math.max(1, srcWidth / factor);
+            dstHeight = size != null ? Math.min(size.getHeight(), srcHeight) : Math.max(1, srcHeight / factor);
+        }
+
+        if (dstWidth == srcWidth && dstHeight == srcHeight) {
+            downscaler = null;
+        } else if (downscaler == null
+                || downscaler.getDstWidth() != dstWidth || downscaler.getDstHeight() != dstHeight
+                || downscalerSrcWidth != srcWidth || downscalerSrcHeight != srcHeight) {
+            downscaler = new YuvDownscaler(srcWidth, srcHeight, dstWidth, dstHeight);
+            downscalerSrcWidth = srcWidth;
+            downscalerSrcHeight = srcHeight;
+        }
+        return downscaler;
+    }
+
+    /**
+     * Returns the bitmap attached to {@code buffer}, sized to its frame.
+     */
+    private static Bitmap ensureBitmap(FrameBuffer buffer) {
+        final int width = buffer.getWidth();
+        final int height = buffer.getHeight();
+        Bitmap bitmap = (Bitmap) buffer.getTag();
+        if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            // A region of interest can change size every frame, reuse the allocation when it fits.
+            if (bitmap != null && bitmap.getAllocationByteCount() >= width * height * 4) {
+                bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+            } else {
+                Log.d(TAG, String.format("Initializing bitmap of frame buffer %d at %dx%d",
+                        buffer.getIndex(), width, height));
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                buffer.setTag(bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Configures the queue in front of {@code stage}: its capacity and what happens to new
+     * frames when it is full. Deeper queues and {@link BackpressurePolicy#BLOCK} trade latency
+     * for throughput. Takes effect on the next {@link #onResume}.
+     */
+    public void setStageQueue(FramePipeline.Stage stage, int capacity, BackpressurePolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+        }
+        queueCapacities[stage.ordinal()] = capacity;
+        queuePolicies[stage.ordinal()] = policy;
+    }
+
+    /**
+     * Latency histograms of every pipeline stage and frame counters, kept across pauses until
+     * {@link FrameMetrics#reset}. The intervals match the {@code acquireFrame},
+     * {@code convertFrame}, {@code processFrame} and {@code presentFrame} trace sections.
+     */
+    public FrameMetrics getFrameMetrics() {
+        return frameMetrics;
+    }
+
+    /**
+     * Startup milestones since the last {@link #onResume}, logged once the first preview frame
+     * is drawn.
+     */
+    public StartupTimeline getStartupTimeline() {
+        return startupTimeline;
+    }
+
+    /**
+     * Duration of the most recent processing step, in milliseconds.
+     */
+    public long getLastProcessingTimeMs() {
+        return lastProcessingTimeMs;
+    }
+
+    /**
+     * Sets how the convert thread waits for frames from the camera thread.
+     * {@link SpscRing.WaitStrategy#BUSY_SPIN} shaves the wakeup latency off every frame at the
+     * cost of a core spinning between frames. Takes effect on the next {@link #onResume}.
+     */
+    public void setHandoffWaitStrategy(SpscRing.WaitStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy must not be null");
+        }
+        handoffWaitStrategy = strategy;
+    }
+
+    /**
+     * The running pipeline, for its drop counters, or null while paused.
+     */
+    public FramePipeline getPipeline() {
+        return pipeline;
+    }
+
+    private synchronized void startPipeline() {
+        pipeline = new FramePipeline(frameBufferPool,
+                new FramePipeline.Converter() {
+                    @Override
+                    public boolean convert(YuvFrame frame, FrameBuffer out) {
+                        if (!convertFrame(frame, out)) {
+                            return false;
+                        }
+                        // Straight from the convert stage, so analyzers never wait on the listeners.
+                        analyzers.dispatch(out);
+                        return true;
+                    }
+                },
+                new FramePipeline.Processor() {
+                    @Override
+                    public void process(FrameBuffer frame) {
+                        processFrame(frame);
+                    }
+                },
+                new FramePipeline.Presenter() {
+                    @Override
+                    public void present(FrameBuffer frame) {
+                        presentFrame(frame);
+                    }
+                },
+                frameMetrics);
+        // Camera timestamps count from boot, including deep sleep; other sources use nanoTime.
+        frameMetrics.setCaptureClockOffset(frameSource == cameraFrameSource
+                ? System.nanoTime() - SystemClock.elapsedRealtimeNanos() : 0);
+        for (FramePipeline.Stage stage : FramePipeline.Stage.values()) {
+            pipeline.setQueue(stage, queueCapacities[stage.ordinal()], queuePolicies[stage.ordinal()]);
+        }
+        pipeline.setProcessingThreads(processingThreads);
+        pipeline.setWaitStrategy(handoffWaitStrategy);
+        pipeline.start();
+    }
+
+    private synchronized void stopPipeline() {
+        if (pipeline != null) {
+            pipeline.stop();
+            pipeline = null;
+        }
+        // Nothing is dispatched until the next start, let the analyzer threads go meanwhile.
+        analyzers.stop();
+    }
+
+    /**
+     * Acquire stage, on the frame source's thread: records the frame, applies the motion gate
+     * and hands the frame to the pipeline.
+     */
     @Override
-    public void onImageAvailable(final ImageReader reader) {
-        Image image = null;
+    public void onYuvFrameAvailable(final YuvFrame yuvFrame) {
+        final YuvRecorder recorder = frameRecorder;
+        if (recorder != null) {
+            Trace.beginSection("recordFrame");
+            recorder.record(yuvFrame);
+            Trace.endSection();
+        }
 
-        try {
-            image = reader.acquireLatestImage();
+        final MotionDetector detector = motionDetector;
+        if (detector != null && !detector.shouldProcess(yuvFrame)) {
+            return;
+        }
+
+        final FramePipeline current = pipeline;
+        boolean accepted = false;
+        if (current != null) {
+            startupTimeline.mark(StartupTimeline.Milestone.FIRST_FRAME_ACQUIRED);
+            Trace.beginSection("acquireFrame");
+            accepted = current.offer(yuvFrame);
+            Trace.endSection();
+        }
+        if (!accepted && detector != null) {
+            // Keep comparing against the last frame that was actually queued.
+            detector.reject();
+        }
+    }
 
-            if (image == null) {
-                return;
+    /**
+     * Convert stage: fills {@code out} from {@code yuvFrame} according to the frame format,
+     * region of interest and analysis size. Returns false to drop the frame.
+     */
+    private boolean convertFrame(YuvFrame yuvFrame, FrameBuffer out) {
+        Trace.beginSection("convertFrame");
+        try {
+            Rect region = null;
+            final Rect roi = regionOfInterest;
+            if (roi != null) {
+                frameRegion.set(roi);
+                if (!frameRegion.intersect(0, 0, yuvFrame.getWidth(), yuvFrame.getHeight())) {
+                    // None of the region is in the frame.
+                    return false;
+                }
+                region = frameRegion;
             }
 
-            if (computing) {
-                image.close();
-                return;
+            final YuvDownscaler scaler = region == null ? getDownscaler(yuvFrame) : null;
+            final int frameWidth;
+            final int frameHeight;
+            if (region != null) {
+                frameWidth = region.width();
+                frameHeight = region.height();
+            } else {
+                frameWidth = scaler != null ? scaler.getDstWidth() : yuvFrame.getWidth();
+                frameHeight = scaler != null ? scaler.getDstHeight() : yuvFrame.getHeight();
             }
-            computing = true;
-
-            Trace.beginSection("imageAvailable");
-
-            final Image.Plane[] planes = image.getPlanes();
-            fillBytes(planes, yuvBytes);
-
-            final int yRowStride = planes[0].getRowStride();
-            final int uvRowStride = planes[1].getRowStride();
-            final int uvPixelStride = planes[1].getPixelStride();
-            ImageUtils.convertYUV420ToARGB8888(
-                    yuvBytes[0],
-                    yuvBytes[1],
-                    yuvBytes[2],
-                    previewSize.getWidth(),
-                    previewSize.getHeight(),
-                    yRowStride,
-                    uvRowStride,
-                    uvPixelStride,
-                    rgbBytes);
-
-            image.close();
-        } catch (final Exception e) {
-            if (image != null) {
-                image.close();
+
+            final FrameFormat format = frameFormat;
+            out.setFrame(format, frameWidth, frameHeight, yuvFrame.getTimestamp());
+            out.getStats().reset();
+            if (format == FrameFormat.LUMA) {
+                convertLuma(yuvFrame, region, scaler, out.ensureLuma(frameWidth * frameHeight));
+                if (analyzers.needs(FrameFormat.ARGB_8888, yuvFrame.getTimestamp())) {
+                    convertArgb(yuvFrame, region, scaler, out);
+                    out.addFormat(FrameFormat.ARGB_8888);
+                }
+            } else {
+                convertArgb(yuvFrame, region, scaler, out);
+                if (analyzers.needs(FrameFormat.LUMA, yuvFrame.getTimestamp())) {
+                    convertLuma(yuvFrame, region, scaler, out.ensureLuma(frameWidth * frameHeight));
+                    out.addFormat(FrameFormat.LUMA);
+                }
             }
-            Log.e(TAG, e.getMessage());
+            return true;
+        } finally {
             Trace.endSection();
-            return;
         }
+    }
 
-        rgbFrameBitmap.setPixels(rgbBytes, 0, previewSize.getWidth(), 0, 0, previewSize.getWidth(), previewSize.getHeight());
+    private static void convertLuma(YuvFrame yuvFrame, Rect region, YuvDownscaler scaler, byte[] luma) {
+        if (region != null) {
+            ImageUtils.extractLuma(yuvFrame, region, luma);
+        } else if (scaler != null) {
+            scaler.downscaleLuma(yuvFrame, luma);
+        } else {
+            ImageUtils.extractLuma(yuvFrame, luma);
+        }
+    }
 
-        runInBackground(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        final long startTime = SystemClock.uptimeMillis();
+    private void convertArgb(YuvFrame yuvFrame, Rect region, YuvDownscaler scaler, FrameBuffer out) {
+        final int[] pixels = out.ensurePixels(out.getWidth() * out.getHeight());
+        final ParallelYuvConverter converter = yuvConverter;
+        final FrameStats stats = collectFrameStats ? out.getStats() : null;
+        if (region != null) {
+            ImageUtils.convertYUV420ToARGB8888(yuvFrame, region, pixels, conversionKernel);
+        } else if (scaler != null) {
+            scaler.convert(yuvFrame, pixels, conversionKernel);
+        } else if (converter != null) {
+            converter.convertYUV420ToARGB8888(yuvFrame, pixels, conversionKernel, stats);
+        } else if (stats != null) {
+            ImageUtils.convertYUV420ToARGB8888(yuvFrame, pixels, conversionKernel, stats);
+        } else {
+            ImageUtils.convertYUV420ToARGB8888(yuvFrame, pixels, conversionKernel);
+        }
+        // The tag holds the converted bitmap whenever the frame has ARGB pixels.
+        ensureBitmap(out).setPixels(pixels, 0, out.getWidth(), 0, 0, out.getWidth(), out.getHeight());
+    }
 
-                        if (mOnBitmapAvailableListener != null) {
-                            mOnBitmapAvailableListener.onBitmapAvailable(rgbFrameBitmap);
-                        }
+    /**
+     * Process stage, on one of the processing threads; frames may finish out of order.
+     */
+    private void processFrame(FrameBuffer frame) {
+        Trace.beginSection("processFrame");
+        final long startTime = System.nanoTime();
 
-                        // PROCESS image here
-                        try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException e) {
-                            Log.e(TAG, e.getStackTrace() + e.getMessage(), e);
-                        }
+        // PROCESS image here
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Log.e(TAG, e.getStackTrace() + e.getMessage(), e);
+            Thread.currentThread().interrupt();
+        }
 
-                        lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+        final long processingTime = System.nanoTime() - startTime;
+        lastProcessingTimeMs = processingTime / 1000000;
 
-                        requestRender();
-                        computing = false;
-                    }
-                });
+        final FrameRateGovernor governor = frameRateGovernor;
+        if (governor != null && governor.onFrameProcessed(processingTime)) {
+            applyFrameRate(governor);
+        }
+        Trace.endSection();
+    }
+
+    /**
+     * Present stage: hands processed frames to the listeners, in capture order, and renders.
+     */
+    private void presentFrame(FrameBuffer frame) {
+        Trace.beginSection("presentFrame");
+        startupTimeline.mark(StartupTimeline.Milestone.FIRST_FRAME_PRESENTED);
+        deliveredFrame = frame;
+        if (mOnFrameAvailableListener != null) {
+            mOnFrameAvailableListener.onFrameAvailable(frame);
+        }
+        if (frame.getFormat() == FrameFormat.LUMA) {
+            if (mOnLumaAvailableListener != null) {
+                mOnLumaAvailableListener.onLumaAvailable(frame.getLuma(), frame.getWidth(), frame.getHeight());
+            }
+        } else if (mOnBitmapAvailableListener != null) {
+            mOnBitmapAvailableListener.onBitmapAvailable((Bitmap) frame.getTag());
+        }
+        deliveredFrame = null;
 
+        if (mCameraViewRenderer.getSyncPreviewAndImageProcess()) {
+            mCameraViewRenderer.onAnalysisPresented(frame.getTimestamp());
+        } else {
+            requestRender();
+        }
         Trace.endSection();
     }
 
@@ -249,6 +785,23 @@ public class CameraGLSurfaceView extends GLSurfaceView implements ImageReader.On
         final int nativeInt;
     }
 
+    /**
+     * Adds an analyzer that receives frames at up to {@code fps} frames per second, 0 for every
+     * frame, on {@code executor}, or on a thread of its own when that is null. Frames are
+     * converted to {@code format} once, whatever the number of analyzers wanting it, and
+     * analyzers still busy with an earlier frame skip the current one instead of delaying the
+     * others. Each analyzer holds its frame's buffer while it runs, so add one
+     * {@link #setFrameBufferCount frame buffer} per analyzer. A thread of the analyzer's own
+     * is ended while the view is paused; {@code executor} is left for the caller to shut down.
+     */
+    public AnalyzerDispatcher.Registration addAnalyzer(FrameAnalyzer analyzer, float fps, Executor executor, FrameFormat format) {
+        return analyzers.register(analyzer, fps, executor, format);
+    }
+
+    public void removeAnalyzer(AnalyzerDispatcher.Registration registration) {
+        analyzers.unregister(registration);
+    }
+
     public void setOnBitmapAvailableListener(OnBitmapAvailableListener listener) {
         mOnBitmapAvailableListener = listener;
     }
@@ -256,4 +809,33 @@ public class CameraGLSurfaceView extends GLSurfaceView implements ImageReader.On
     public interface OnBitmapAvailableListener {
         void onBitmapAvailable(Bitmap var1);
     }
+
+    public void setOnLumaAvailableListener(OnLumaAvailableListener listener) {
+        mOnLumaAvailableListener = listener;
+    }
+
+    /**
+     * Receives every converted frame, ARGB or luma, before the bitmap and luma listeners.
+     */
+    public void setOnFrameAvailableListener(OnFrameAvailableListener listener) {
+        mOnFrameAvailableListener = listener;
+    }
+
+    public interface OnFrameAvailableListener {
+        /**
+         * Called on the present thread, in capture order, once the frame has been processed.
+         * {@code frame} may be overwritten once this returns, unless the listener calls
+         * {@link FrameBuffer#retain} and later releases it. For ARGB frames
+         * {@link FrameBuffer#getTag} is the {@link Bitmap} holding the pixels.
+         */
+        void onFrameAvailable(FrameBuffer frame);
+    }
+
+    public interface OnLumaAvailableListener {
+        /**
+         * @param luma Packed luminance in the first {@code width * height} bytes, valid until the
+         *             next frame.
+         */
+        void onLumaAvailable(byte[] luma, int width, int height);
+    }
 }
@@ -1,6 +1,8 @@
 package com.gscoder.androidglescamera2;
 
+import android.Manifest;
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
@@ -9,11 +11,12 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureRequest;
-import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.ImageReader;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
+import android.util.Range;
+import android.support.v4.content.ContextCompat;
 import android.util.Size;
 import android.view.Surface;
 
@@ -38,18 +41,56 @@ public class CameraHandler {
     private ImageReader mPreviewReader;
 
     private int mFacing;
+    private Range<Integer>[] mFpsRanges;
+    private volatile Range<Integer> mFpsRange;
 
-    protected SurfaceTexture mSurfaceTexture;
+    // Set by the GL thread once the preview texture exists, null while there is none.
+    protected volatile SurfaceTexture mSurfaceTexture;
+    // Texture the current session was created for, background thread only.
+    private SurfaceTexture mSessionSurfaceTexture;
+    // Whether openCamera went through since the last closeCamera, UI thread only.
+    private boolean mOpenRequested;
 
     private ImageReader.OnImageAvailableListener mOnImageAvailableListener;
+    private final StartupTimeline mStartupTimeline;
 
-    public CameraHandler(ImageReader.OnImageAvailableListener onImageAvailableListener, Size desiredPreviewSize) {
+    public CameraHandler(ImageReader.OnImageAvailableListener onImageAvailableListener, Size desiredPreviewSize,
+                         StartupTimeline startupTimeline) {
         mOnImageAvailableListener = onImageAvailableListener;
         mDesiredPreviewSize = desiredPreviewSize;
+        mStartupTimeline = startupTimeline;
     }
 
-    public void setSurfaceTexture(SurfaceTexture surfaceTexture) {
+    /**
+     * Hands over the preview texture, or null once it is gone. The camera is opened without
+     * waiting for it; the capture session is created as soon as both the camera and the
+     * texture are there, whichever comes last.
+     */
+    public void setSurfaceTexture(final SurfaceTexture surfaceTexture) {
         mSurfaceTexture = surfaceTexture;
+        if (surfaceTexture == null) {
+            return;
+        }
+        mStartupTimeline.mark(StartupTimeline.Milestone.SURFACE_TEXTURE_READY);
+
+        final Handler handler = mBackgroundHandler;
+        if (handler != null) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    createSessionIfReady();
+                }
+            });
+        }
+    }
+
+    private void createSessionIfReady() {
+        final SurfaceTexture surfaceTexture = mSurfaceTexture;
+        if (mCameraDevice == null || surfaceTexture == null || surfaceTexture == mSessionSurfaceTexture) {
+            return;
+        }
+        mSessionSurfaceTexture = surfaceTexture;
+        createCameraPreviewSession();
     }
 
     public int getFacing() {
@@ -63,6 +104,69 @@ public class CameraHandler {
         return mPreviewSize;
     }
 
+    /**
+     * Asks the camera to capture at {@code fps} frames per second or a little more, choosing the
+     * available AE target range with the lowest upper bound that reaches it, and among those the
+     * steadiest one. Applied to the running session right away, or to the next one.
+     */
+    public void setTargetFrameRate(int fps) {
+        final Range<Integer> range = chooseFpsRange(mFpsRanges, fps);
+        if (range == null || range.equals(mFpsRange)) {
+            return;
+        }
+        mFpsRange = range;
+
+        final Handler handler = mBackgroundHandler;
+        if (handler != null) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    updateRepeatingRequest();
+                }
+            });
+        }
+    }
+
+    public Range<Integer> getFpsRange() {
+        return mFpsRange;
+    }
+
+    static Range<Integer> chooseFpsRange(Range<Integer>[] ranges, int fps) {
+        if (ranges == null) {
+            return null;
+        }
+        Range<Integer> best = null;
+        Range<Integer> fastest = null;
+        for (Range<Integer> range : ranges) {
+            if (fastest == null || range.getUpper() > fastest.getUpper()) {
+                fastest = range;
+            }
+            if (range.getUpper() < fps) {
+                continue;
+            }
+            if (best == null || range.getUpper() < best.getUpper()
+                    || (range.getUpper().equals(best.getUpper()) && range.getLower() > best.getLower())) {
+                best = range;
+            }
+        }
+        return best != null ? best : fastest;
+    }
+
+    private void updateRepeatingRequest() {
+        if (mCaptureSession == null || mPreviewRequestBuilder == null) {
+            return;
+        }
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
+        try {
+            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), null, mBackgroundHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "updateRepeatingRequest");
+        } catch (IllegalStateException e) {
+            // The session was closed in the meantime; the next one picks the range up.
+            Log.w(TAG, "updateRepeatingRequest - session closed");
+        }
+    }
+
     double distanceSq (Size one, Size two) {
         double dY = one.getHeight() - two.getHeight();
         double dX = one.getWidth() - two.getWidth();
@@ -70,29 +174,22 @@ public class CameraHandler {
     }
 
     void calcPreviewSize(Context context) {
-        CameraManager manager = (CameraManager)context.getSystemService(Context.CAMERA_SERVICE);
         double distSq = Double.MAX_VALUE;
         try {
-            for (String cameraID : manager.getCameraIdList()) {
-                CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraID);
-                if (characteristics.get(CameraCharacteristics.LENS_FACING) != CameraCharacteristics.LENS_FACING_FRONT)
-                    continue;
-
-                mFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
-                mCameraID = cameraID;
-                StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-                for ( Size psize : map.getOutputSizes(SurfaceTexture.class)) {
-
+            // Read from a file after the first run, rather than queried camera by camera.
+            final CameraInfoCache.CameraInfo camera =
+                    CameraInfoCache.get(context).find(CameraCharacteristics.LENS_FACING_FRONT);
+            if (camera != null) {
+                mFacing = camera.getFacing();
+                mCameraID = camera.getId();
+                mFpsRanges = camera.getFpsRanges();
+                for ( Size psize : camera.getOutputSizes()) {
                     double tmpDistSq = distanceSq(psize, mDesiredPreviewSize);
-                    Log.i("mr", String.format("size %d x %d   %f", psize.getWidth(), psize.getHeight(), tmpDistSq));
-
                     if ( tmpDistSq < distSq ) {
                         mPreviewSize = psize;
                         distSq = tmpDistSq;
-                        Log.i("mr", String.format("mPreviewSize %d x %d", psize.getWidth(), psize.getHeight()));
                     }
                 }
-                break;
             }
         } catch ( CameraAccessException e ) {
             Log.e("mr", "calcPreviewSize - Camera Access Exception");
@@ -101,29 +198,61 @@ public class CameraHandler {
         } catch ( SecurityException e ) {
             Log.e("mr", "calcPreviewSize - Security Exception");
         }
-        Log.i("mr", "camera size had to be chosen");
+        if (mPreviewSize != null) {
+            Log.i("mr", "mPreviewSize " + mPreviewSize.getWidth() + " x " + mPreviewSize.getHeight());
+        }
     }
 
+    /**
+     * Starts opening the camera, unless it is already open or the camera permission is missing.
+     * Needs the background thread; the preview texture may come later.
+     */
     void openCamera(Context contexst) {
+        if (mOpenRequested) {
+            return;
+        }
+        if (mBackgroundHandler == null) {
+            Log.w(TAG, "openCamera - background thread not running");
+            return;
+        }
+        if (ContextCompat.checkSelfPermission(contexst, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+            Log.i(TAG, "openCamera - waiting for the camera permission");
+            return;
+        }
+        if (mCameraID == null) {
+            Log.e(TAG, "openCamera - no camera was found");
+            return;
+        }
         CameraManager manager = (CameraManager)contexst.getSystemService(Context.CAMERA_SERVICE);
+        boolean locked = false;
         try {
-            CameraCharacteristics characteristics = manager.getCameraCharacteristics(mCameraID);
             if (!mCameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
                 throw new RuntimeException("Time out waiting to lock camera opening.");
             }
+            locked = true;
+            mStartupTimeline.mark(StartupTimeline.Milestone.CAMERA_OPEN_REQUESTED);
             manager.openCamera(mCameraID,mStateCallback,mBackgroundHandler);
+            mOpenRequested = true;
         } catch ( CameraAccessException e ) {
             Log.e("mr", "OpenCamera - Camera Access Exception");
         } catch ( IllegalArgumentException e ) {
             Log.e("mr", "OpenCamera - Illegal Argument Exception");
+            // The cached camera id may be gone, query the cameras again on the next start.
+            CameraInfoCache.invalidate(contexst);
         } catch ( SecurityException e ) {
             Log.e("mr", "OpenCamera - Security Exception");
         } catch ( InterruptedException e ) {
             Log.e("mr", "OpenCamera - Interrupted Exception");
+        } finally {
+            // On success the state callback releases the lock; otherwise no callback will.
+            if (locked && !mOpenRequested) {
+                mCameraOpenCloseLock.release();
+            }
         }
     }
 
     protected void closeCamera() {
+        mOpenRequested = false;
         try {
             mCameraOpenCloseLock.acquire();
             if (null != mCaptureSession) {
@@ -147,7 +276,9 @@ public class CameraHandler {
         public void onOpened(CameraDevice cameraDevice) {
             mCameraOpenCloseLock.release();
             mCameraDevice = cameraDevice;
-            createCameraPreviewSession();
+            mStartupTimeline.mark(StartupTimeline.Milestone.CAMERA_OPENED);
+            mSessionSurfaceTexture = null;
+            createSessionIfReady();
         }
 
         @Override
@@ -167,11 +298,15 @@ public class CameraHandler {
     };
 
     protected void createCameraPreviewSession() {
+        final SurfaceTexture surfaceTexture = mSurfaceTexture;
+        if (surfaceTexture == null) {
+            return;
+        }
         try {
             mPreviewRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
 
-            mSurfaceTexture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
-            final Surface surface = new Surface(mSurfaceTexture);
+            surfaceTexture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+            final Surface surface = new Surface(surfaceTexture);
             mPreviewRequestBuilder.addTarget(surface);;
 
             // Create the reader for the preview frames.
@@ -193,8 +328,12 @@ public class CameraHandler {
                             try {
                                 mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
                                 mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                                if (mFpsRange != null) {
+                                    mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
+                                }
 
                                 mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), null, mBackgroundHandler);
+                                mStartupTimeline.mark(StartupTimeline.Milestone.SESSION_CONFIGURED);
                             } catch (CameraAccessException e) {
                                 Log.e(TAG, "createCaptureSession");
                             }
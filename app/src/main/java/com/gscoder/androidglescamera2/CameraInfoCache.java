@@ -0,0 +1,317 @@
+package com.gscoder.androidglescamera2;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Camera ids, facings, preview output sizes and AE target FPS ranges, queried from the
+ * {@link CameraManager} once and persisted to a small file in the cache directory, so that
+ * later starts skip the characteristics queries, each of which is a binder call into the
+ * camera service.
+ *
+ * The file is rebuilt whenever {@link Build#FINGERPRINT} differs from the one it was written
+ * with, that is after a system update, and can be dropped with {@link #invalidate}. Once read,
+ * the cache lives for the rest of the process; sizes and ranges are only turned into
+ * {@link Size} and {@link Range} objects when first asked for.
+ *
+ * File layout, all values big-endian:
+ * <pre>
+ * int magic, int version, UTF fingerprint, int cameraCount, then per camera
+ *     UTF id, int facing, int sizeCount, sizeCount entries of int width, int height,
+ *     int rangeCount, rangeCount entries of int lower, int upper
+ * </pre>
+ */
+public class CameraInfoCache {
+    private static final String TAG = CameraInfoCache.class.getSimpleName();
+
+    static final int MAGIC = 0x43414d49; // "CAMI"
+    static final int VERSION = 1;
+    static final String FILE_NAME = "camera_info.bin";
+    // Bounds on counts read from the file, far above what any device reports.
+    private static final int MAX_CAMERAS = 256;
+    private static final int MAX_PAIRS = 4096;
+
+    private static CameraInfoCache sInstance;
+
+    private final List<CameraInfo> mCameras;
+    private final boolean mFromFile;
+
+    /**
+     * What is kept of one camera's characteristics.
+     */
+    public static class CameraInfo {
+        private final String mId;
+        private final int mFacing;
+        // Width, height pairs.
+        private final int[] mSizes;
+        // Lower, upper pairs.
+        private final int[] mFpsRanges;
+        private Size[] mOutputSizes;
+        private Range<Integer>[] mRanges;
+
+        CameraInfo(String id, int facing, int[] sizes, int[] fpsRanges) {
+            mId = id;
+            mFacing = facing;
+            mSizes = sizes;
+            mFpsRanges = fpsRanges;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        /**
+         * One of the {@code CameraCharacteristics.LENS_FACING_*} values.
+         */
+        public int getFacing() {
+            return mFacing;
+        }
+
+        /**
+         * Output sizes for a {@link SurfaceTexture} target.
+         */
+        public synchronized Size[] getOutputSizes() {
+            if (mOutputSizes == null) {
+                mOutputSizes = new Size[mSizes.length / 2];
+                for (int i = 0; i < mOutputSizes.length; ++i) {
+                    mOutputSizes[i] = new Size(mSizes[2 * i], mSizes[2 * i + 1]);
+                }
+            }
+            return mOutputSizes.clone();
+        }
+
+        /**
+         * Ranges for {@code CONTROL_AE_TARGET_FPS_RANGE}.
+         */
+        @SuppressWarnings("unchecked")
+        public synchronized Range<Integer>[] getFpsRanges() {
+            if (mRanges == null) {
+                mRanges = new Range[mFpsRanges.length / 2];
+                for (int i = 0; i < mRanges.length; ++i) {
+                    mRanges[i] = Range.create(mFpsRanges[2 * i], mFpsRanges[2 * i + 1]);
+                }
+            }
+            return mRanges.clone();
+        }
+    }
+
+    private CameraInfoCache(List<CameraInfo> cameras, boolean fromFile) {
+        mCameras = Collections.unmodifiableList(cameras);
+        mFromFile = fromFile;
+    }
+
+    /**
+     * Returns the cached camera list, reading the cache file on first use, or querying the
+     * camera service and writing the file if it is missing or stale.
+     *
+     * @throws CameraAccessException if the camera service has to be queried and fails.
+     */
+    public static synchronized CameraInfoCache get(Context context) throws CameraAccessException {
+        if (sInstance == null) {
+            final File file = getFile(context);
+            List<CameraInfo> cameras = read(file);
+            if (cameras != null) {
+                sInstance = new CameraInfoCache(cameras, true);
+            } else {
+                // Stale or corrupt, it must not be read again should the query fail.
+                if (file.exists() && !file.delete()) {
+                    Log.w(TAG, "Could not delete " + file);
+                }
+                final CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+                cameras = query(manager);
+                write(file, cameras);
+                sInstance = new CameraInfoCache(cameras, false);
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Forgets the cached list and deletes the file, so the next {@link #get} queries the camera
+     * service again.
+     */
+    public static synchronized void invalidate(Context context) {
+        sInstance = null;
+        final File file = getFile(context);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    public List<CameraInfo> getCameras() {
+        return mCameras;
+    }
+
+    /**
+     * Whether the list was read from the cache file rather than queried.
+     */
+    public boolean isFromFile() {
+        return mFromFile;
+    }
+
+    /**
+     * The first camera facing {@code facing}, or null if there is none.
+     */
+    public CameraInfo find(int facing) {
+        for (CameraInfo camera : mCameras) {
+            if (camera.getFacing() == facing) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    public CameraInfo findById(String id) {
+        for (CameraInfo camera : mCameras) {
+            if (camera.getId().equals(id)) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    private static List<CameraInfo> query(CameraManager manager) throws CameraAccessException {
+        final List<CameraInfo> cameras = new ArrayList<CameraInfo>();
+        for (String id : manager.getCameraIdList()) {
+            final CameraCharacteristics characteristics = manager.getCameraCharacteristics(id);
+            final Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+
+            final StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            final Size[] outputSizes = map != null ? map.getOutputSizes(SurfaceTexture.class) : null;
+            final int[] sizes = new int[outputSizes != null ? 2 * outputSizes.length : 0];
+            for (int i = 0; i < sizes.length / 2; ++i) {
+                sizes[2 * i] = outputSizes[i].getWidth();
+                sizes[2 * i + 1] = outputSizes[i].getHeight();
+            }
+
+            final Range<Integer>[] fpsRanges =
+                    characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+            final int[] ranges = new int[fpsRanges != null ? 2 * fpsRanges.length : 0];
+            for (int i = 0; i < ranges.length / 2; ++i) {
+                ranges[2 * i] = fpsRanges[i].getLower();
+                ranges[2 * i + 1] = fpsRanges[i].getUpper();
+            }
+
+            cameras.add(new CameraInfo(id, facing != null ? facing : -1, sizes, ranges));
+        }
+        return cameras;
+    }
+
+    /**
+     * Returns the cameras stored in {@code file}, or null if it is missing, unreadable or was
+     * written by another build.
+     */
+    private static List<CameraInfo> read(File file) {
+        final DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !Build.FINGERPRINT.equals(in.readUTF())) {
+                Log.i(TAG, "Camera info cache is stale");
+                return null;
+            }
+            final int count = in.readInt();
+            if (count < 0 || count > MAX_CAMERAS) {
+                throw new IOException("Corrupt camera count " + count);
+            }
+            final List<CameraInfo> cameras = new ArrayList<CameraInfo>(count);
+            for (int i = 0; i < count; ++i) {
+                final String id = in.readUTF();
+                final int facing = in.readInt();
+                final int[] sizes = readPairs(in);
+                final int[] ranges = readPairs(in);
+                cameras.add(new CameraInfo(id, facing, sizes, ranges));
+            }
+            return cameras;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + file, e);
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing was written, nothing to lose.
+            }
+        }
+    }
+
+    private static int[] readPairs(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if (count < 0 || count > MAX_PAIRS) {
+            throw new IOException("Corrupt entry count " + count);
+        }
+        final int[] values = new int[2 * count];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * Writes {@code cameras} to a temporary file renamed over {@code file}, so a reader never
+     * sees a partial file. A failure only costs the next start another query.
+     */
+    private static void write(File file, List<CameraInfo> cameras) {
+        final File tmp = new File(file.getPath() + ".tmp");
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(Build.FINGERPRINT);
+                out.writeInt(cameras.size());
+                for (CameraInfo camera : cameras) {
+                    out.writeUTF(camera.mId);
+                    out.writeInt(camera.mFacing);
+                    writePairs(out, camera.mSizes);
+                    writePairs(out, camera.mFpsRanges);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file, e);
+            if (tmp.exists() && !tmp.delete()) {
+                Log.w(TAG, "Could not delete " + tmp);
+            }
+        }
+    }
+
+    private static void writePairs(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length / 2);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+}
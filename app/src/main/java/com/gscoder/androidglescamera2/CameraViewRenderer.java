@@ -23,6 +23,7 @@ import com.gscoder.androidglescamera2.CameraGLSurfaceView.ScaleType;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.microedition.khronos.opengles.GL10;
 
@@ -48,10 +49,24 @@ public class CameraViewRenderer implements GLSurfaceView.Renderer, SurfaceTextur
             "  gl_FragColor = texture2D(sTexture,texCoord);\n" +
             "}";
 
+    // Draws a held preview frame from its framebuffer texture.
+    private final String heldFragmentShader = "" +
+            "precision mediump float;\n" +
+            "uniform sampler2D sTexture;\n" +
+            "varying vec2 texCoord;\n" +
+            "void main() {\n" +
+            "  gl_FragColor = texture2D(sTexture,texCoord);\n" +
+            "}";
+
+    private static final float[] IDENTITY = new float[] {1, 0, 0, 0,   0, 1, 0, 0,   0, 0, 1, 0,   0, 0, 0, 1};
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private static final int DEFAULT_HOLD_FRAMES = 8;
+
     private int[] hTex;
     private FloatBuffer pVertex;
     private FloatBuffer pTexCoord;
     private int hProgram;
+    private int hHeldProgram;
 
     private boolean mGLInit = false;
     private boolean mUpdateSurfaceTexture = false;
@@ -63,6 +78,16 @@ public class CameraViewRenderer implements GLSurfaceView.Renderer, SurfaceTextur
     private SurfaceTexture mSurfaceTexture;
     private boolean mSyncPreviewAndImageProcess;
 
+    // Sync mode: preview frames held in framebuffer textures until their analysis finishes.
+    private volatile int mHoldFrames = DEFAULT_HOLD_FRAMES;
+    private PreviewHoldQueue mHoldQueue;
+    private int[] mHoldTextures;
+    private int[] mHoldFramebuffers;
+    // Newest finished analysis, handed from the present thread to the GL thread.
+    private final AtomicLong mAnalyzedTimestamp = new AtomicLong(NO_TIMESTAMP);
+    // Analysis whose preview frame has not arrived yet, GL thread only.
+    private long mPendingTimestamp = NO_TIMESTAMP;
+
     private WindowManager mWindowManager;
     private OrientationEventListener mOrientationListener;
 
@@ -117,8 +142,40 @@ public class CameraViewRenderer implements GLSurfaceView.Renderer, SurfaceTextur
         return mSyncPreviewAndImageProcess;
     }
 
+    /**
+     * Sets how many preview frames sync mode holds while their analysis runs. It should cover
+     * the analysis latency at the camera frame rate; frames older than that are evicted and
+     * their results shown with the oldest frame still held, see
+     * {@link PreviewHoldQueue#getMissedCount}.
+     */
+    public void setPreviewHoldFrames(int frames) {
+        if (frames < 1) {
+            throw new IllegalArgumentException("frames must be at least 1, was " + frames);
+        }
+        mHoldFrames = frames;
+    }
+
+    /**
+     * Match statistics of sync mode, or null before the first synchronized frame. Read from
+     * other threads the counters may be slightly stale.
+     */
+    public PreviewHoldQueue getPreviewHoldQueue() {
+        return mHoldQueue;
+    }
+
+    /**
+     * Called when the analysis of the frame captured at {@code timestamp} is done. In sync mode
+     * the preview frame with the same sensor timestamp is shown next.
+     */
+    public void onAnalysisPresented(long timestamp) {
+        mAnalyzedTimestamp.set(timestamp);
+        mSurfaceView.requestRender();
+    }
+
     public void onResume() {
         mCameraHandler.startBackgroundThread();
+        // Opening the camera overlaps with GL setup, the session waits for the texture.
+        mCameraHandler.openCamera(mSurfaceView.getContext());
 
         if (mOrientationListener.canDetectOrientation() == true) {
             Log.v(TAG, "Can detect orientation");
@@ -132,59 +189,183 @@ public class CameraViewRenderer implements GLSurfaceView.Renderer, SurfaceTextur
     public void onPause() {
         mGLInit = false;
         mUpdateSurfaceTexture = false;
+        mAnalyzedTimestamp.set(NO_TIMESTAMP);
         mCameraHandler.closeCamera();
+        // The texture goes with the GL context.
+        mCameraHandler.setSurfaceTexture(null);
         mCameraHandler.stopBackgroundThread();
         mOrientationListener.disable();
     }
 
     @Override
     public void onSurfaceCreated (GL10 unused, javax.microedition.khronos.egl.EGLConfig eglConfig ) {
+        mSurfaceView.getStartupTimeline().mark(StartupTimeline.Milestone.GL_SURFACE_CREATED);
         initTex();
         mSurfaceTexture = new SurfaceTexture ( hTex[0] );
         mSurfaceTexture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
         mSurfaceTexture.setOnFrameAvailableListener(this);
 
-        mCameraHandler.setSurfaceTexture(mSurfaceTexture);
-
         GLES20.glClearColor(1.0f, 1.0f, 1.0f, 1.0f); // Clear white
         checkGlError("glClearColor");
 
         hProgram = loadShader (cameraVertexShader, cameraFragmentShader);
+        hHeldProgram = loadShader (cameraVertexShader, heldFragmentShader);
 
-        mCameraHandler.openCamera(mSurfaceView.getContext());
+        // Textures of the previous context are gone with it.
+        mHoldQueue = null;
+        mHoldTextures = null;
+        mHoldFramebuffers = null;
+        mPendingTimestamp = NO_TIMESTAMP;
 
         mGLInit = true;
 
         updateViewport();
+
+        // The camera was opened in onResume; this lets its capture session start.
+        mCameraHandler.setSurfaceTexture(mSurfaceTexture);
     }
 
     public void onDrawFrame ( GL10 unused ) {
         if ( !mGLInit ) return;
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-        checkGlError("glClear");
 
+        boolean updated = false;
         synchronized(this) {
             if (mUpdateSurfaceTexture) {
                 mSurfaceTexture.updateTexImage();
                 mUpdateSurfaceTexture = false;
+                updated = true;
 
                 updateViewport();
             }
         }
 
-        GLES20.glUseProgram(hProgram);
+        if (updated && mSurfaceView.getStartupTimeline().mark(StartupTimeline.Milestone.FIRST_PREVIEW_DRAWN)) {
+            Log.i(TAG, "Startup: " + mSurfaceView.getStartupTimeline());
+        }
+
+        if (mSyncPreviewAndImageProcess) {
+            drawSynchronized(updated);
+            return;
+        }
+
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        checkGlError("glClear");
+
+        drawQuad(hProgram, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, hTex[0], mTexRotateMatrix);
+
+        GLES20.glFlush();
+        checkGlError("glFlush");
+    }
+
+    /**
+     * Sync mode: stores a new preview frame in the hold queue and shows the held frame that
+     * matches the newest finished analysis, so results line up with what is on screen. The
+     * camera keeps streaming into the queue meanwhile; only the display waits for analysis.
+     */
+    private void drawSynchronized(boolean updated) {
+        if (mHoldQueue == null || mHoldQueue.getSlotCount() != mHoldFrames + 1) {
+            createHoldQueue(mHoldFrames);
+        }
+
+        if (updated) {
+            final int slot = mHoldQueue.hold(mSurfaceTexture.getTimestamp());
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mHoldFramebuffers[slot]);
+            checkGlError("glBindFramebuffer");
+            GLES20.glViewport(0, 0, mPreviewSize.getWidth(), mPreviewSize.getHeight());
+            checkGlError("glViewport");
+
+            drawQuad(hProgram, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, hTex[0], IDENTITY);
+
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            checkGlError("glBindFramebuffer");
+            GLES20.glViewport((int) mImageRect.left, (int) mImageRect.top, (int) mImageRect.width(), (int) mImageRect.height());
+            checkGlError("glViewport");
+        }
+
+        final long analyzed = mAnalyzedTimestamp.getAndSet(NO_TIMESTAMP);
+        if (analyzed != NO_TIMESTAMP) {
+            // A newer result replaces one still waiting for its preview frame.
+            mPendingTimestamp = analyzed;
+        }
+        if (mPendingTimestamp != NO_TIMESTAMP && mHoldQueue.match(mPendingTimestamp) != PreviewHoldQueue.WAIT) {
+            mPendingTimestamp = NO_TIMESTAMP;
+        }
+
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        checkGlError("glClear");
+
+        final int shown = mHoldQueue.getDisplayed();
+        if (shown >= 0) {
+            drawQuad(hHeldProgram, GLES20.GL_TEXTURE_2D, mHoldTextures[shown], mTexRotateMatrix);
+        }
+
+        GLES20.glFlush();
+        checkGlError("glFlush");
+    }
+
+    private void createHoldQueue(int frames) {
+        deleteHoldQueue();
+
+        mHoldQueue = new PreviewHoldQueue(frames);
+        final int count = mHoldQueue.getSlotCount();
+        mHoldTextures = new int[count];
+        mHoldFramebuffers = new int[count];
+        GLES20.glGenTextures(count, mHoldTextures, 0);
+        checkGlError("glGenTextures");
+        GLES20.glGenFramebuffers(count, mHoldFramebuffers, 0);
+        checkGlError("glGenFramebuffers");
+
+        for (int i = 0; i < count; ++i) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mHoldTextures[i]);
+            checkGlError("glBindTexture");
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mPreviewSize.getWidth(), mPreviewSize.getHeight(),
+                    0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+            checkGlError("glTexImage2D");
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            checkGlError("glTexParameteri");
+
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mHoldFramebuffers[i]);
+            checkGlError("glBindFramebuffer");
+            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                    GLES20.GL_TEXTURE_2D, mHoldTextures[i], 0);
+            checkGlError("glFramebufferTexture2D");
+            final int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+            if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+                throw new RuntimeException("Hold framebuffer incomplete: 0x" + Integer.toHexString(status));
+            }
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        checkGlError("glBindFramebuffer");
+    }
+
+    private void deleteHoldQueue() {
+        if (mHoldTextures != null) {
+            GLES20.glDeleteFramebuffers(mHoldFramebuffers.length, mHoldFramebuffers, 0);
+            GLES20.glDeleteTextures(mHoldTextures.length, mHoldTextures, 0);
+            mHoldTextures = null;
+            mHoldFramebuffers = null;
+        }
+        mHoldQueue = null;
+        mPendingTimestamp = NO_TIMESTAMP;
+    }
+
+    private void drawQuad(int program, int target, int texture, float[] matrix) {
+        GLES20.glUseProgram(program);
         checkGlError("glUseProgram");
 
-        int trmh = GLES20.glGetUniformLocation ( hProgram, "uTexRotateMatrix" );
+        int trmh = GLES20.glGetUniformLocation ( program, "uTexRotateMatrix" );
         checkGlError("glGetUniformLocation");
 
-        GLES20.glUniformMatrix4fv(trmh, 1, false, mTexRotateMatrix, 0);
+        GLES20.glUniformMatrix4fv(trmh, 1, false, matrix, 0);
         checkGlError("glUniformMatrix4fv");
 
-        int ph = GLES20.glGetAttribLocation(hProgram, "vPosition");
+        int ph = GLES20.glGetAttribLocation(program, "vPosition");
         checkGlError("glGetAttribLocation");
 
-        int tch = GLES20.glGetAttribLocation ( hProgram, "vTexCoord" );
+        int tch = GLES20.glGetAttribLocation ( program, "vTexCoord" );
         checkGlError("glGetAttribLocation");
 
         GLES20.glVertexAttribPointer(ph, 2, GLES20.GL_FLOAT, false, 4*2, pVertex);
@@ -202,17 +383,14 @@ public class CameraViewRenderer implements GLSurfaceView.Renderer, SurfaceTextur
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         checkGlError("glActiveTexture");
 
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, hTex[0]);
+        GLES20.glBindTexture(target, texture);
         checkGlError("glBindTexture");
 
-        GLES20.glUniform1i(GLES20.glGetUniformLocation ( hProgram, "sTexture" ), 0);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation ( program, "sTexture" ), 0);
         checkGlError("glUniform1i");
 
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
         checkGlError("glDrawArrays");
-
-        GLES20.glFlush();
-        checkGlError("glFlush");
     }
 
     public void onSurfaceChanged (GL10 unused, int width, int height ) {
@@ -318,9 +496,10 @@ public class CameraViewRenderer implements GLSurfaceView.Renderer, SurfaceTextur
     }
 
     public synchronized void onFrameAvailable ( SurfaceTexture st ) {
+        mSurfaceView.getStartupTimeline().mark(StartupTimeline.Milestone.FIRST_PREVIEW_FRAME);
         mUpdateSurfaceTexture = true;
-        if (!mSyncPreviewAndImageProcess)
-            mSurfaceView.requestRender();
+        // In sync mode too, so the frame is moved into the hold queue right away.
+        mSurfaceView.requestRender();
     }
 
     private void updateTextureRotationMatrix() {
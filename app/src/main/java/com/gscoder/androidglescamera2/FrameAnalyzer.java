@@ -0,0 +1,13 @@
+package com.gscoder.androidglescamera2;
+
+/**
+ * Analyzes converted frames, registered with {@link AnalyzerDispatcher}.
+ */
+public interface FrameAnalyzer {
+    /**
+     * Called on the analyzer's executor with a frame in the format it registered for. The frame
+     * is shared with other analyzers and must not be modified; it is released when this call
+     * returns unless the analyzer retains it.
+     */
+    void analyze(FrameBuffer frame);
+}
@@ -0,0 +1,163 @@
+package com.gscoder.androidglescamera2;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A converted frame, owned by a {@link FrameBufferPool} and shared between consumers through
+ * reference counting.
+ *
+ * A buffer comes out of {@link FrameBufferPool#acquire} with one reference. Every consumer
+ * that keeps the frame past the callback it was handed in calls {@link #retain}, and
+ * {@link #release} once done; the buffer returns to the pool, and may be overwritten, only
+ * when the last reference is released.
+ */
+public class FrameBuffer {
+    private final FrameBufferPool mPool;
+    private final int mIndex;
+    private final AtomicInteger mRefCount = new AtomicInteger();
+
+    private int[] mPixels;
+    private byte[] mLuma;
+    private final FrameStats mStats = new FrameStats();
+    private FrameFormat mFormat = FrameFormat.ARGB_8888;
+    // Bit per FrameFormat ordinal, for frames also converted to other formats.
+    private int mFormats = 1 << FrameFormat.ARGB_8888.ordinal();
+    private int mWidth;
+    private int mHeight;
+    private long mTimestamp;
+    private Object mTag;
+    // Pipeline timing points of the frame, see FrameMetrics.
+    final long[] marks = new long[FrameMetrics.MARK_COUNT];
+
+    FrameBuffer(FrameBufferPool pool, int index) {
+        mPool = pool;
+        mIndex = index;
+    }
+
+    /**
+     * Position of this buffer in its pool.
+     */
+    public int getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Describes the frame the buffer currently holds.
+     */
+    public void setFrame(FrameFormat format, int width, int height, long timestamp) {
+        mFormat = format;
+        mFormats = 1 << format.ordinal();
+        mWidth = width;
+        mHeight = height;
+        mTimestamp = timestamp;
+    }
+
+    /**
+     * Marks the frame as also available in {@code format}, besides {@link #getFormat}.
+     */
+    public void addFormat(FrameFormat format) {
+        mFormats |= 1 << format.ordinal();
+    }
+
+    /**
+     * Whether the frame was converted to {@code format}: ARGB pixels or luma.
+     */
+    public boolean hasFormat(FrameFormat format) {
+        return (mFormats & (1 << format.ordinal())) != 0;
+    }
+
+    /**
+     * Returns the ARGB pixel storage, grown to at least {@code count} pixels.
+     */
+    public int[] ensurePixels(int count) {
+        if (mPixels == null || mPixels.length < count) {
+            mPixels = new int[count];
+        }
+        return mPixels;
+    }
+
+    /**
+     * Returns the luma storage, grown to at least {@code count} bytes.
+     */
+    public byte[] ensureLuma(int count) {
+        if (mLuma == null || mLuma.length < count) {
+            mLuma = new byte[count];
+        }
+        return mLuma;
+    }
+
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    public byte[] getLuma() {
+        return mLuma;
+    }
+
+    public FrameStats getStats() {
+        return mStats;
+    }
+
+    public FrameFormat getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Attaches an object that lives as long as the buffer, such as a Bitmap wrapping its pixels.
+     */
+    public void setTag(Object tag) {
+        mTag = tag;
+    }
+
+    public Object getTag() {
+        return mTag;
+    }
+
+    /**
+     * Adds a reference. Fails if the buffer was already released back to its pool.
+     */
+    public FrameBuffer retain() {
+        while (true) {
+            final int count = mRefCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Frame buffer " + mIndex + " was already released");
+            }
+            if (mRefCount.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Drops a reference, returning the buffer to its pool when it was the last one.
+     */
+    public void release() {
+        final int count = mRefCount.decrementAndGet();
+        if (count == 0) {
+            mPool.recycle(this);
+        } else if (count < 0) {
+            mRefCount.incrementAndGet();
+            throw new IllegalStateException("Frame buffer " + mIndex + " released more often than retained");
+        }
+    }
+
+    public int getRefCount() {
+        return mRefCount.get();
+    }
+
+    void acquired() {
+        mRefCount.set(1);
+    }
+}
@@ -0,0 +1,74 @@
+package com.gscoder.androidglescamera2;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed set of {@link FrameBuffer}s, so frames can be converted into one buffer while
+ * consumers still hold earlier ones.
+ *
+ * When every buffer is in use {@link #acquire} returns null instead of handing out a buffer
+ * somebody still reads; the caller drops the frame and the event is counted.
+ */
+public class FrameBufferPool {
+    private final FrameBuffer[] mBuffers;
+    private final ArrayBlockingQueue<FrameBuffer> mFree;
+    private final AtomicLong mAcquiredCount = new AtomicLong();
+    private final AtomicLong mExhaustedCount = new AtomicLong();
+
+    public FrameBufferPool(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be at least 1, was " + size);
+        }
+        mBuffers = new FrameBuffer[size];
+        mFree = new ArrayBlockingQueue<FrameBuffer>(size);
+        for (int i = 0; i < size; ++i) {
+            mBuffers[i] = new FrameBuffer(this, i);
+            mFree.offer(mBuffers[i]);
+        }
+    }
+
+    /**
+     * Takes a free buffer holding one reference, or returns null if all buffers are in use.
+     */
+    public FrameBuffer acquire() {
+        final FrameBuffer buffer = mFree.poll();
+        if (buffer == null) {
+            mExhaustedCount.incrementAndGet();
+            return null;
+        }
+        buffer.acquired();
+        mAcquiredCount.incrementAndGet();
+        return buffer;
+    }
+
+    void recycle(FrameBuffer buffer) {
+        mFree.offer(buffer);
+    }
+
+    public int getSize() {
+        return mBuffers.length;
+    }
+
+    /**
+     * Buffer at {@code index}, for attaching per-buffer resources up front.
+     */
+    public FrameBuffer getBuffer(int index) {
+        return mBuffers[index];
+    }
+
+    public int getAvailableCount() {
+        return mFree.size();
+    }
+
+    public long getAcquiredCount() {
+        return mAcquiredCount.get();
+    }
+
+    /**
+     * Number of times {@link #acquire} found no free buffer.
+     */
+    public long getExhaustedCount() {
+        return mExhaustedCount.get();
+    }
+}
@@ -0,0 +1,11 @@
+package com.gscoder.androidglescamera2;
+
+/**
+ * Pixel formats camera frames can be delivered in for processing.
+ */
+public enum FrameFormat {
+    /** Full color, one packed {@code int} per pixel. */
+    ARGB_8888,
+    /** Luminance only, one byte per pixel, read from the Y plane without touching chroma. */
+    LUMA
+}
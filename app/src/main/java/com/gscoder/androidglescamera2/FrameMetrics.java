@@ -0,0 +1,139 @@
+package com.gscoder.androidglescamera2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time of each frame goes on its way through {@link FramePipeline}: one
+ * {@link LatencyHistogram} per interval between the points a frame passes, plus counters of
+ * processed and dropped frames.
+ *
+ * Points are {@link System#nanoTime} readings, except the sensor capture time, which is the
+ * frame timestamp shifted by {@link #setCaptureClockOffset}. Intervals starting at capture are
+ * only recorded when that gives a plausible value, since sources differ in their time base.
+ */
+public class FrameMetrics {
+    public enum Interval {
+        /** Sensor capture until the frame reached the pipeline. */
+        CAPTURE_TO_ACQUIRE,
+        /** Copying the planes out of the source buffer. */
+        COPY,
+        /** Waiting in the convert queue. */
+        CONVERT_QUEUE,
+        CONVERT,
+        /** Waiting in the process queue. */
+        PROCESS_QUEUE,
+        PROCESS,
+        /** Waiting for earlier frames and in the present queue. */
+        PRESENT_QUEUE,
+        /** Handing the frame to the listeners and requesting a render. */
+        PRESENT,
+        /** The whole pipeline, from acquire until presented. */
+        ACQUIRE_TO_PRESENT,
+        /** Sensor capture until presented. */
+        CAPTURE_TO_PRESENT
+    }
+
+    static final int MARK_CAPTURE = 0;
+    static final int MARK_ACQUIRE = 1;
+    static final int MARK_COPIED = 2;
+    static final int MARK_CONVERT_START = 3;
+    static final int MARK_CONVERT_END = 4;
+    static final int MARK_PROCESS_START = 5;
+    static final int MARK_PROCESS_END = 6;
+    static final int MARK_PRESENT_START = 7;
+    static final int MARK_PRESENT_END = 8;
+    static final int MARK_COUNT = 9;
+
+    // Capture intervals longer than this mean the frame timestamps use another clock.
+    private static final long MAX_CAPTURE_LATENCY_NS = 10000000000L;
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[Interval.values().length];
+    private final AtomicLong mProcessedCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private volatile long mCaptureClockOffset;
+
+    public FrameMetrics() {
+        for (int i = 0; i < mHistograms.length; ++i) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Sets what is added to frame timestamps to express them in {@link System#nanoTime} time,
+     * for example the difference to {@code SystemClock.elapsedRealtimeNanos()} for cameras whose
+     * timestamps are in that base.
+     */
+    public void setCaptureClockOffset(long offsetNs) {
+        mCaptureClockOffset = offsetNs;
+    }
+
+    long toLocalTime(long captureTimestamp) {
+        return captureTimestamp + mCaptureClockOffset;
+    }
+
+    public LatencyHistogram getHistogram(Interval interval) {
+        return mHistograms[interval.ordinal()];
+    }
+
+    /**
+     * Frames that made it through every stage.
+     */
+    public long getProcessedCount() {
+        return mProcessedCount.get();
+    }
+
+    /**
+     * Frames dropped anywhere in the pipeline, for any reason.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    void countDropped() {
+        mDroppedCount.incrementAndGet();
+    }
+
+    /**
+     * Records the intervals of a presented frame from its points.
+     */
+    void recordFrame(long[] marks) {
+        mProcessedCount.incrementAndGet();
+        record(Interval.COPY, marks[MARK_ACQUIRE], marks[MARK_COPIED]);
+        record(Interval.CONVERT_QUEUE, marks[MARK_COPIED], marks[MARK_CONVERT_START]);
+        record(Interval.CONVERT, marks[MARK_CONVERT_START], marks[MARK_CONVERT_END]);
+        record(Interval.PROCESS_QUEUE, marks[MARK_CONVERT_END], marks[MARK_PROCESS_START]);
+        record(Interval.PROCESS, marks[MARK_PROCESS_START], marks[MARK_PROCESS_END]);
+        record(Interval.PRESENT_QUEUE, marks[MARK_PROCESS_END], marks[MARK_PRESENT_START]);
+        record(Interval.PRESENT, marks[MARK_PRESENT_START], marks[MARK_PRESENT_END]);
+        record(Interval.ACQUIRE_TO_PRESENT, marks[MARK_ACQUIRE], marks[MARK_PRESENT_END]);
+
+        final long capture = marks[MARK_CAPTURE];
+        final long captureToAcquire = marks[MARK_ACQUIRE] - capture;
+        if (captureToAcquire >= 0 && captureToAcquire < MAX_CAPTURE_LATENCY_NS) {
+            record(Interval.CAPTURE_TO_ACQUIRE, capture, marks[MARK_ACQUIRE]);
+            record(Interval.CAPTURE_TO_PRESENT, capture, marks[MARK_PRESENT_END]);
+        }
+    }
+
+    private void record(Interval interval, long start, long end) {
+        mHistograms[interval.ordinal()].record(end - start);
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        mProcessedCount.set(0);
+        mDroppedCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("processed=").append(getProcessedCount()).append(" dropped=").append(getDroppedCount());
+        for (Interval interval : Interval.values()) {
+            sb.append('\n').append(interval).append(": ").append(getHistogram(interval));
+        }
+        return sb.toString();
+    }
+}
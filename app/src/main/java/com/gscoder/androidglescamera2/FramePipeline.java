@@ -0,0 +1,471 @@
+package com.gscoder.androidglescamera2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs frames through acquire, convert, process and present stages, each on its own thread
+ * and connected by bounded queues, so converting frame N+1 overlaps processing frame N.
+ *
+ * Acquire runs on the frame source's thread: it copies the frame out of the source buffer,
+ * which the camera wants back quickly, into a slot of a lock-free {@link SpscRing} read by
+ * the convert stage, so the camera thread neither allocates nor locks per frame. Convert fills a
+ * {@link FrameBuffer} from the pool, process hands it to the application and present shows
+ * it. Every queue has its own capacity and {@link BackpressurePolicy}, which sets the
+ * latency / throughput tradeoff; frames dropped anywhere are released and counted.
+ *
+ * The process stage can run several workers, each with a frame in flight, so throughput
+ * scales with cores when a single frame's processing does not. A {@link ReorderBuffer} puts
+ * processed frames back in capture order before they reach the present stage.
+ *
+ * Every frame is timestamped as it passes the stages and the intervals are recorded in
+ * {@link FrameMetrics}.
+ */
+public class FramePipeline implements FrameSource.OnYuvFrameAvailableListener {
+    private static final String TAG = FramePipeline.class.getSimpleName();
+
+    /**
+     * The stages fed by a queue.
+     */
+    public enum Stage {
+        CONVERT, PROCESS, PRESENT
+    }
+
+    public interface Converter {
+        /**
+         * Converts {@code frame} into {@code out}. Returns false to drop the frame.
+         */
+        boolean convert(YuvFrame frame, FrameBuffer out);
+    }
+
+    public interface Processor {
+        /**
+         * Processes {@code frame}; retain it to keep it past this call. Called concurrently,
+         * in no particular order, when there are several processing threads.
+         */
+        void process(FrameBuffer frame);
+    }
+
+    public interface Presenter {
+        /**
+         * Presents {@code frame}; retain it to keep it past this call. Always called on one
+         * thread, in capture order.
+         */
+        void present(FrameBuffer frame);
+    }
+
+    private final FrameBufferPool mPool;
+    private final Converter mConverter;
+    private final Processor mProcessor;
+    private final Presenter mPresenter;
+    private final FrameMetrics mMetrics;
+
+    private final int[] mCapacities = {1, 1, 1};
+    private final BackpressurePolicy[] mPolicies = {
+            BackpressurePolicy.DROP_OLDEST, BackpressurePolicy.DROP_OLDEST, BackpressurePolicy.DROP_OLDEST
+    };
+
+    private SpscRing<YuvFrameBuffer> mConvertRing;
+    private SpscRing.WaitStrategy mWaitStrategy = SpscRing.WaitStrategy.PARK;
+    private final AtomicLong mConvertDroppedCount = new AtomicLong();
+    private FrameQueue<FrameBuffer> mProcessQueue;
+    private FrameQueue<FrameBuffer> mPresentQueue;
+    private int mProcessingThreads = 1;
+    private ReorderBuffer<FrameBuffer> mReorder;
+    // Held while taking a frame and reserving its sequence, so sequences follow queue order.
+    private final Object mTakeLock = new Object();
+    // Held while completing a sequence and forwarding what became ready, so frames leave in order.
+    private final Object mDeliverLock = new Object();
+    private Thread[] mThreads;
+    private volatile boolean mRunning;
+
+    private final AtomicLong mAcquiredCount = new AtomicLong();
+    private final AtomicLong mPresentedCount = new AtomicLong();
+    private final AtomicLong mExhaustedCount = new AtomicLong();
+    private final AtomicLong mFailedCount = new AtomicLong();
+    private volatile Throwable mLastError;
+
+    public FramePipeline(FrameBufferPool pool, Converter converter, Processor processor, Presenter presenter) {
+        this(pool, converter, processor, presenter, new FrameMetrics());
+    }
+
+    /**
+     * Creates a pipeline recording into {@code metrics}, which may outlive it.
+     */
+    public FramePipeline(FrameBufferPool pool, Converter converter, Processor processor, Presenter presenter,
+                         FrameMetrics metrics) {
+        mPool = pool;
+        mConverter = converter;
+        mProcessor = processor;
+        mPresenter = presenter;
+        mMetrics = metrics;
+    }
+
+    /**
+     * Configures the queue feeding {@code stage}. Takes effect on the next {@link #start}.
+     */
+    public synchronized void setQueue(Stage stage, int capacity, BackpressurePolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+        }
+        mCapacities[stage.ordinal()] = capacity;
+        mPolicies[stage.ordinal()] = policy;
+    }
+
+    /**
+     * Sets the number of frames processed in parallel. Takes effect on the next {@link #start}.
+     */
+    public synchronized void setProcessingThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+        }
+        mProcessingThreads = threads;
+    }
+
+    /**
+     * Sets how the convert stage waits for frames, and the frame source for free slots under
+     * {@link BackpressurePolicy#BLOCK}. Takes effect on the next {@link #start}.
+     */
+    public synchronized void setWaitStrategy(SpscRing.WaitStrategy strategy) {
+        mWaitStrategy = strategy;
+    }
+
+    public synchronized void start() {
+        if (mThreads != null) {
+            throw new IllegalStateException(TAG + " is already started");
+        }
+        mProcessQueue = new FrameQueue<FrameBuffer>(mCapacities[1], mPolicies[1]);
+        mPresentQueue = new FrameQueue<FrameBuffer>(mCapacities[2], mPolicies[2]);
+
+        // The queued copies plus the one being converted. Dropping the oldest needs one more,
+        // so the source can publish a new frame for the convert stage to skip ahead to.
+        final int slotCount = mCapacities[0] + (mPolicies[0] == BackpressurePolicy.DROP_OLDEST ? 2 : 1);
+        final YuvFrameBuffer[] slots = new YuvFrameBuffer[slotCount];
+        for (int i = 0; i < slotCount; ++i) {
+            slots[i] = new YuvFrameBuffer();
+        }
+        mConvertRing = new SpscRing<YuvFrameBuffer>(slots, mWaitStrategy);
+
+        // Lets finished frames run one round of processing ahead of the oldest one in flight.
+        mReorder = new ReorderBuffer<FrameBuffer>(2 * mProcessingThreads);
+
+        mRunning = true;
+        mThreads = new Thread[mProcessingThreads + 2];
+        mThreads[0] = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                convertLoop();
+            }
+        }, TAG + "-convert");
+        mThreads[1] = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                presentLoop();
+            }
+        }, TAG + "-present");
+        for (int i = 0; i < mProcessingThreads; ++i) {
+            mThreads[2 + i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    processLoop();
+                }
+            }, TAG + "-process-" + i);
+        }
+        for (Thread thread : mThreads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops all stages and releases every frame still queued. Frames already handed to the
+     * processor or presenter finish their current call first.
+     */
+    public synchronized void stop() {
+        if (mThreads == null) {
+            return;
+        }
+        mRunning = false;
+        mConvertRing.close();
+        mProcessQueue.close();
+        mPresentQueue.close();
+        for (Thread thread : mThreads) {
+            thread.interrupt();
+        }
+        for (Thread thread : mThreads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mThreads = null;
+
+        // Copies left in the ring hold no pooled buffers.
+        releaseAll(mProcessQueue);
+        while (mReorder.hasNext()) {
+            final FrameBuffer buffer = mReorder.next();
+            if (buffer != null) {
+                buffer.release();
+            }
+        }
+        releaseAll(mPresentQueue);
+    }
+
+    private static void releaseAll(FrameQueue<FrameBuffer> queue) {
+        FrameBuffer buffer;
+        while ((buffer = queue.poll()) != null) {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Acquire stage: copies {@code frame} and queues it for conversion. Called on the frame
+     * source's thread, which blocks here only if the convert queue uses
+     * {@link BackpressurePolicy#BLOCK}.
+     */
+    @Override
+    public void onYuvFrameAvailable(YuvFrame frame) {
+        offer(frame);
+    }
+
+    /**
+     * Same as {@link #onYuvFrameAvailable}, returning false if the frame was dropped right away
+     * because the convert queue was full or the pipeline is stopped. A frame that was queued
+     * can still be dropped later for a newer one, or when no FrameBuffer is free.
+     */
+    public boolean offer(YuvFrame frame) {
+        if (!mRunning) {
+            return false;
+        }
+        final long acquireTime = System.nanoTime();
+        final SpscRing<YuvFrameBuffer> ring = mConvertRing;
+        YuvFrameBuffer copy = ring.claim();
+        if (copy == null && mPolicies[0] == BackpressurePolicy.BLOCK) {
+            try {
+                copy = ring.claimWaiting();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (copy == null) {
+            mConvertDroppedCount.incrementAndGet();
+            mMetrics.countDropped();
+            return false;
+        }
+        copy.copyFrom(frame);
+        mAcquiredCount.incrementAndGet();
+        copy.marks[FrameMetrics.MARK_CAPTURE] = mMetrics.toLocalTime(frame.getTimestamp());
+        copy.marks[FrameMetrics.MARK_ACQUIRE] = acquireTime;
+        copy.marks[FrameMetrics.MARK_COPIED] = System.nanoTime();
+        ring.publish();
+        return true;
+    }
+
+    private void convertLoop() {
+        final SpscRing<YuvFrameBuffer> ring = mConvertRing;
+        final boolean latestOnly = mPolicies[0] == BackpressurePolicy.DROP_OLDEST;
+        try {
+            YuvFrameBuffer copy;
+            while ((copy = ring.take()) != null) {
+                if (latestOnly) {
+                    // Skip to the newest copy, dropping the ones that waited behind it.
+                    YuvFrameBuffer newer;
+                    while ((newer = ring.poll()) != null) {
+                        // Releases the oldest taken slot, that is copy.
+                        ring.release();
+                        mConvertDroppedCount.incrementAndGet();
+                        mMetrics.countDropped();
+                        copy = newer;
+                    }
+                }
+
+                final FrameBuffer buffer = mPool.acquire();
+                if (buffer == null) {
+                    mExhaustedCount.incrementAndGet();
+                    mMetrics.countDropped();
+                    ring.release();
+                    continue;
+                }
+                System.arraycopy(copy.marks, 0, buffer.marks, 0, FrameMetrics.MARK_CONVERT_START);
+                buffer.marks[FrameMetrics.MARK_CONVERT_START] = System.nanoTime();
+
+                boolean converted = false;
+                boolean failed = false;
+                try {
+                    converted = mConverter.convert(copy.getFrame(), buffer);
+                } catch (RuntimeException e) {
+                    // Counted as dropped by onError.
+                    onError(e);
+                    failed = true;
+                } finally {
+                    ring.release();
+                }
+                buffer.marks[FrameMetrics.MARK_CONVERT_END] = System.nanoTime();
+
+                if (converted) {
+                    forward(buffer, mProcessQueue);
+                } else {
+                    if (!failed) {
+                        mMetrics.countDropped();
+                    }
+                    buffer.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopping.
+        }
+    }
+
+    private void processLoop() {
+        try {
+            while (true) {
+                final FrameBuffer buffer;
+                final long sequence;
+                synchronized (mTakeLock) {
+                    buffer = mProcessQueue.take();
+                    if (buffer == null) {
+                        return;
+                    }
+                    try {
+                        sequence = mReorder.reserve();
+                    } catch (InterruptedException e) {
+                        buffer.release();
+                        throw e;
+                    }
+                }
+
+                FrameBuffer result = null;
+                buffer.marks[FrameMetrics.MARK_PROCESS_START] = System.nanoTime();
+                try {
+                    mProcessor.process(buffer);
+                    buffer.marks[FrameMetrics.MARK_PROCESS_END] = System.nanoTime();
+                    result = buffer;
+                } catch (RuntimeException e) {
+                    onError(e);
+                    buffer.release();
+                }
+                deliver(sequence, result);
+            }
+        } catch (InterruptedException e) {
+            // Stopping.
+        }
+    }
+
+    /**
+     * Completes {@code sequence} and forwards every frame that is now next in capture order.
+     */
+    private void deliver(long sequence, FrameBuffer result) throws InterruptedException {
+        synchronized (mDeliverLock) {
+            mReorder.complete(sequence, result);
+            while (mReorder.hasNext()) {
+                final FrameBuffer buffer = mReorder.next();
+                if (buffer != null) {
+                    forward(buffer, mPresentQueue);
+                }
+            }
+        }
+    }
+
+    private void presentLoop() {
+        try {
+            FrameBuffer buffer;
+            while ((buffer = mPresentQueue.take()) != null) {
+                buffer.marks[FrameMetrics.MARK_PRESENT_START] = System.nanoTime();
+                try {
+                    mPresenter.present(buffer);
+                    mPresentedCount.incrementAndGet();
+                    buffer.marks[FrameMetrics.MARK_PRESENT_END] = System.nanoTime();
+                    mMetrics.recordFrame(buffer.marks);
+                } catch (RuntimeException e) {
+                    onError(e);
+                } finally {
+                    buffer.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopping.
+        }
+    }
+
+    private void forward(FrameBuffer buffer, FrameQueue<FrameBuffer> queue) throws InterruptedException {
+        final FrameBuffer dropped;
+        try {
+            dropped = queue.offer(buffer);
+        } catch (InterruptedException e) {
+            mMetrics.countDropped();
+            buffer.release();
+            throw e;
+        }
+        if (dropped != null) {
+            mMetrics.countDropped();
+            dropped.release();
+        }
+    }
+
+    private void onError(Throwable t) {
+        mFailedCount.incrementAndGet();
+        mMetrics.countDropped();
+        mLastError = t;
+    }
+
+    public FrameMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Frames dropped by the queue feeding {@code stage}.
+     */
+    public long getDroppedCount(Stage stage) {
+        final FrameQueue<?> queue;
+        switch (stage) {
+            case CONVERT:
+                return mConvertDroppedCount.get();
+            case PROCESS:
+                queue = mProcessQueue;
+                break;
+            default:
+                queue = mPresentQueue;
+                break;
+        }
+        return queue != null ? queue.getDroppedCount() : 0;
+    }
+
+    /**
+     * Frames the source published into the convert ring so far, and frames the convert stage
+     * is done with; their difference is the ring's fill level.
+     */
+    public long getPublishedSequence() {
+        final SpscRing<YuvFrameBuffer> ring = mConvertRing;
+        return ring != null ? ring.getPublishedSequence() : 0;
+    }
+
+    public long getConsumedSequence() {
+        final SpscRing<YuvFrameBuffer> ring = mConvertRing;
+        return ring != null ? ring.getReleasedSequence() : 0;
+    }
+
+    /**
+     * Frames dropped because no {@link FrameBuffer} was free.
+     */
+    public long getExhaustedCount() {
+        return mExhaustedCount.get();
+    }
+
+    public long getAcquiredCount() {
+        return mAcquiredCount.get();
+    }
+
+    public long getPresentedCount() {
+        return mPresentedCount.get();
+    }
+
+    /**
+     * Frames dropped because a stage threw; see {@link #getLastError}.
+     */
+    public long getFailedCount() {
+        return mFailedCount.get();
+    }
+
+    public Throwable getLastError() {
+        return mLastError;
+    }
+}
@@ -0,0 +1,178 @@
+package com.gscoder.androidglescamera2;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded FIFO between two pipeline stages, applying a {@link BackpressurePolicy} when full.
+ *
+ * Dropped frames are handed back to the producer from {@link #offer} so it can release them;
+ * the queue never silently loses a frame that holds a pooled buffer. Storage is a fixed array,
+ * so steady-state operation allocates nothing.
+ */
+public class FrameQueue<T> {
+    private final Object[] mItems;
+    private final BackpressurePolicy mPolicy;
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final Condition mNotFull = mLock.newCondition();
+    private int mHead;
+    private int mCount;
+    private boolean mClosed;
+    private long mDroppedCount;
+
+    public FrameQueue(int capacity, BackpressurePolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+        }
+        mItems = new Object[capacity];
+        mPolicy = policy;
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return mPolicy;
+    }
+
+    public int getCapacity() {
+        return mItems.length;
+    }
+
+    /**
+     * Queues {@code item}. Returns null if it was queued without dropping anything; otherwise
+     * returns the frame that was dropped, the evicted oldest one or {@code item} itself, which
+     * the caller has to release. A closed queue rejects every item.
+     *
+     * @throws InterruptedException if interrupted while blocked waiting for room.
+     */
+    public T offer(T item) throws InterruptedException {
+        mLock.lock();
+        try {
+            if (mPolicy == BackpressurePolicy.BLOCK) {
+                while (mCount == mItems.length && !mClosed) {
+                    mNotFull.await();
+                }
+            }
+            if (mClosed) {
+                ++mDroppedCount;
+                return item;
+            }
+
+            T dropped = null;
+            if (mCount == mItems.length) {
+                ++mDroppedCount;
+                if (mPolicy == BackpressurePolicy.DROP_NEWEST) {
+                    return item;
+                }
+                dropped = removeFirst();
+            }
+            mItems[(mHead + mCount) % mItems.length] = item;
+            ++mCount;
+            mNotEmpty.signal();
+            return dropped;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to {@code timeout} for a frame. Returns null on timeout or once the queue is
+     * closed and empty.
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        mLock.lock();
+        try {
+            while (mCount == 0) {
+                if (mClosed || nanos <= 0) {
+                    return null;
+                }
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+            final T item = removeFirst();
+            mNotFull.signal();
+            return item;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a frame. Returns null once the queue is closed and empty.
+     */
+    public T take() throws InterruptedException {
+        mLock.lock();
+        try {
+            while (mCount == 0) {
+                if (mClosed) {
+                    return null;
+                }
+                mNotEmpty.await();
+            }
+            final T item = removeFirst();
+            mNotFull.signal();
+            return item;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a queued frame without waiting, for draining on shutdown. Returns null if empty.
+     */
+    public T poll() {
+        mLock.lock();
+        try {
+            if (mCount == 0) {
+                return null;
+            }
+            final T item = removeFirst();
+            mNotFull.signal();
+            return item;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Rejects further frames and wakes up every waiting producer and consumer. Frames already
+     * queued can still be taken.
+     */
+    public void close() {
+        mLock.lock();
+        try {
+            mClosed = true;
+            mNotEmpty.signalAll();
+            mNotFull.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int size() {
+        mLock.lock();
+        try {
+            return mCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        mLock.lock();
+        try {
+            return mDroppedCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T removeFirst() {
+        final T item = (T) mItems[mHead];
+        mItems[mHead] = null;
+        mHead = (mHead + 1) % mItems.length;
+        --mCount;
+        return item;
+    }
+}
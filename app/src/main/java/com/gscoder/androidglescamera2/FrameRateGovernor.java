@@ -0,0 +1,212 @@
+package com.gscoder.androidglescamera2;
+
+/**
+ * Picks the analysis frame rate and resolution from the measured processing cost, so that
+ * processing keeps up with the frames it is given and stays within a load budget.
+ *
+ * Every processed frame feeds its processing time into an exponentially weighted moving
+ * average. From that the governor derives the rate the processing threads sustain at the
+ * target load. While that rate stays below the minimum, it steps down a resolution ladder of
+ * scale factors, assuming the cost is proportional to the pixel count; when the next larger
+ * rung would sustain the minimum with headroom, it steps back up. The camera frame rate follows
+ * the analysis rate within the given range, so frames are not captured only to be skipped.
+ *
+ * Decisions change only after a few frames at the current setting and by more than a small
+ * margin, so the outputs do not oscillate.
+ */
+public class FrameRateGovernor {
+    // Frames measured at a setting before it may change again.
+    private static final int SETTLE_FRAMES = 5;
+    // Relative rate change below which the current rate is kept.
+    private static final float RATE_MARGIN = 0.1f;
+    // How much faster than the minimum the next rung must be estimated to run to step up.
+    private static final float STEP_UP_HEADROOM = 1.5f;
+
+    private final float mMinFps;
+    private final float mMaxFps;
+    private final float[] mLadder;
+    private float mTargetLoad = 0.8f;
+    private float mSmoothing = 0.2f;
+    private int mParallelism = 1;
+    private int mMinCameraFps = 15;
+    private int mMaxCameraFps = 30;
+
+    private double mCostNs;
+    private int mSettleCount;
+    private int mLevel;
+    private float mFrameRate;
+    private int mCameraFrameRate;
+
+    /**
+     * @param minFps Lowest analysis rate worth running at; below it the resolution drops.
+     * @param maxFps Highest analysis rate to ask for.
+     * @param ladder Analysis scale factors relative to the preview, from largest to smallest,
+     *               such as {@code {1, 0.75f, 0.5f, 0.25f}}.
+     */
+    public FrameRateGovernor(float minFps, float maxFps, float[] ladder) {
+        if (minFps <= 0 || maxFps < minFps) {
+            throw new IllegalArgumentException("Invalid frame rate range " + minFps + ".." + maxFps);
+        }
+        if (ladder.length == 0) {
+            throw new IllegalArgumentException("ladder must not be empty");
+        }
+        for (int i = 0; i < ladder.length; ++i) {
+            if (ladder[i] <= 0 || ladder[i] > 1 || (i > 0 && ladder[i] >= ladder[i - 1])) {
+                throw new IllegalArgumentException("ladder must decrease within (0, 1], got " + ladder[i]);
+            }
+        }
+        mMinFps = minFps;
+        mMaxFps = maxFps;
+        mLadder = ladder.clone();
+        reset();
+    }
+
+    /**
+     * Sets the share, in (0, 1], of the processing threads' time frames may take up.
+     */
+    public synchronized void setTargetLoad(float load) {
+        if (load <= 0 || load > 1) {
+            throw new IllegalArgumentException("load must be within (0, 1], was " + load);
+        }
+        mTargetLoad = load;
+    }
+
+    /**
+     * Sets the weight, in (0, 1], of each new measurement in the moving cost estimate.
+     */
+    public synchronized void setSmoothing(float alpha) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha must be within (0, 1], was " + alpha);
+        }
+        mSmoothing = alpha;
+    }
+
+    /**
+     * Sets the number of frames processed in parallel.
+     */
+    public synchronized void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+        }
+        mParallelism = threads;
+    }
+
+    /**
+     * Sets the range the camera frame rate is chosen from; the minimum keeps the preview smooth.
+     */
+    public synchronized void setCameraFrameRateRange(int minFps, int maxFps) {
+        if (minFps < 1 || maxFps < minFps) {
+            throw new IllegalArgumentException("Invalid camera frame rate range " + minFps + ".." + maxFps);
+        }
+        mMinCameraFps = minFps;
+        mMaxCameraFps = maxFps;
+        mCameraFrameRate = cameraFrameRateFor(mFrameRate);
+    }
+
+    /**
+     * Forgets the measurements and starts over at the top of the ladder and the maximum rate.
+     */
+    public synchronized void reset() {
+        mCostNs = 0;
+        mSettleCount = 0;
+        mLevel = 0;
+        mFrameRate = mMaxFps;
+        mCameraFrameRate = cameraFrameRateFor(mFrameRate);
+    }
+
+    /**
+     * Feeds the processing time of one frame. Returns true when the rate, the resolution or the
+     * camera frame rate changed.
+     */
+    public synchronized boolean onFrameProcessed(long costNs) {
+        mCostNs = mCostNs == 0 ? costNs : mCostNs + mSmoothing * (costNs - mCostNs);
+        if (++mSettleCount < SETTLE_FRAMES || mCostNs <= 0) {
+            return false;
+        }
+
+        boolean changed = false;
+        float sustained = sustainedRate(mCostNs);
+        if (sustained < mMinFps && mLevel < mLadder.length - 1) {
+            setLevel(mLevel + 1);
+            sustained = sustainedRate(mCostNs);
+            changed = true;
+        } else if (mLevel > 0) {
+            final double upCost = mCostNs * pixelRatio(mLevel - 1, mLevel);
+            if (sustainedRate(upCost) >= mMinFps * STEP_UP_HEADROOM) {
+                setLevel(mLevel - 1);
+                sustained = sustainedRate(mCostNs);
+                changed = true;
+            }
+        }
+
+        final float rate = Math.max(mMinFps, Math.min(mMaxFps, sustained));
+        if (changed || Math.abs(rate - mFrameRate) > RATE_MARGIN * mFrameRate) {
+            mFrameRate = rate;
+            changed = true;
+        }
+        final int cameraRate = cameraFrameRateFor(mFrameRate);
+        if (cameraRate != mCameraFrameRate) {
+            mCameraFrameRate = cameraRate;
+            changed = true;
+        }
+        return changed;
+    }
+
+    private float sustainedRate(double costNs) {
+        return (float) (mTargetLoad * mParallelism * 1e9 / costNs);
+    }
+
+    private double pixelRatio(int to, int from) {
+        final double ratio = mLadder[to] / mLadder[from];
+        return ratio * ratio;
+    }
+
+    /**
+     * Moves to {@code level}, rescaling the cost estimate by the pixel count so the new rung
+     * starts from a sensible guess instead of the old rung's cost.
+     */
+    private void setLevel(int level) {
+        mCostNs *= pixelRatio(level, mLevel);
+        mLevel = level;
+        mSettleCount = 0;
+    }
+
+    private int cameraFrameRateFor(float analysisRate) {
+        return Math.max(mMinCameraFps, Math.min(mMaxCameraFps, (int) Math.ceil(analysisRate)));
+    }
+
+    /**
+     * Frames per second to analyze.
+     */
+    public synchronized float getFrameRate() {
+        return mFrameRate;
+    }
+
+    /**
+     * Current rung of the resolution ladder, 0 being the largest.
+     */
+    public synchronized int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Analysis scale factor of the current rung, relative to the preview.
+     */
+    public synchronized float getScale() {
+        return mLadder[mLevel];
+    }
+
+    /**
+     * Frames per second the camera should capture.
+     */
+    public synchronized int getCameraFrameRate() {
+        return mCameraFrameRate;
+    }
+
+    /**
+     * Moving estimate of the processing time per frame at the current rung, in nanoseconds.
+     */
+    public synchronized long getEstimatedCostNs() {
+        return (long) mCostNs;
+    }
+}
@@ -0,0 +1,24 @@
+package com.gscoder.androidglescamera2;
+
+/**
+ * Something that delivers YUV_420_888 frames to the conversion and processing stages: the
+ * camera, a recording being replayed or a synthetic generator.
+ *
+ * Frames are delivered on a thread owned by the source, one at a time. A frame and its plane
+ * buffers are only valid during the callback; the source reuses them afterwards.
+ */
+public interface FrameSource {
+    /**
+     * Starts delivering frames to {@code listener}.
+     */
+    void start(OnYuvFrameAvailableListener listener);
+
+    /**
+     * Stops delivering frames. No callback is running or started once this returns.
+     */
+    void stop();
+
+    interface OnYuvFrameAvailableListener {
+        void onYuvFrameAvailable(YuvFrame frame);
+    }
+}
@@ -0,0 +1,126 @@
+package com.gscoder.androidglescamera2;
+
+/**
+ * Luma histogram, mean color and exposure counts of a frame, filled in by the conversion loop
+ * while it reads the pixels, see {@link YuvConverter#convertYUV420ToARGB8888(YuvFrame, int[],
+ * YuvToRgbKernel, FrameStats)}.
+ *
+ * Meant to be reused from frame to frame; nothing is allocated after construction.
+ */
+public class FrameStats {
+    private final int[] mHistogram = new int[256];
+    private long mSumR;
+    private long mSumG;
+    private long mSumB;
+    private int mPixelCount;
+
+    private int mUnderexposedLevel = 16;
+    private int mOverexposedLevel = 235;
+
+    /**
+     * Sets the luma levels at or below which a pixel counts as underexposed and at or above
+     * which it counts as overexposed. The defaults, 16 and 235, are the black and white levels
+     * of limited range video.
+     */
+    public void setExposureLevels(int underexposed, int overexposed) {
+        if (underexposed < 0 || overexposed > 255 || underexposed >= overexposed) {
+            throw new IllegalArgumentException(String.format("Invalid exposure levels %d and %d",
+                    underexposed, overexposed));
+        }
+        mUnderexposedLevel = underexposed;
+        mOverexposedLevel = overexposed;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mHistogram.length; ++i) {
+            mHistogram[i] = 0;
+        }
+        mSumR = 0;
+        mSumG = 0;
+        mSumB = 0;
+        mPixelCount = 0;
+    }
+
+    /**
+     * Adds the counts of {@code other}, used to combine the bands of a parallel conversion.
+     */
+    public void merge(FrameStats other) {
+        for (int i = 0; i < mHistogram.length; ++i) {
+            mHistogram[i] += other.mHistogram[i];
+        }
+        mSumR += other.mSumR;
+        mSumG += other.mSumG;
+        mSumB += other.mSumB;
+        mPixelCount += other.mPixelCount;
+    }
+
+    /**
+     * Histogram storage, written directly by the conversion loop.
+     */
+    int[] histogram() {
+        return mHistogram;
+    }
+
+    void add(long sumR, long sumG, long sumB, int pixelCount) {
+        mSumR += sumR;
+        mSumG += sumG;
+        mSumB += sumB;
+        mPixelCount += pixelCount;
+    }
+
+    /**
+     * Number of pixels per luma level; the returned array is live and must not be modified.
+     */
+    public int[] getHistogram() {
+        return mHistogram;
+    }
+
+    public int getPixelCount() {
+        return mPixelCount;
+    }
+
+    public float getMeanLuma() {
+        if (mPixelCount == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < mHistogram.length; ++i) {
+            sum += (long) i * mHistogram[i];
+        }
+        return sum / (float) mPixelCount;
+    }
+
+    public float getMeanRed() {
+        return mPixelCount == 0 ? 0 : mSumR / (float) mPixelCount;
+    }
+
+    public float getMeanGreen() {
+        return mPixelCount == 0 ? 0 : mSumG / (float) mPixelCount;
+    }
+
+    public float getMeanBlue() {
+        return mPixelCount == 0 ? 0 : mSumB / (float) mPixelCount;
+    }
+
+    /**
+     * Number of pixels with a luma at or below the underexposed level.
+     */
+    public int getUnderexposedCount() {
+        int count = 0;
+        for (int i = 0; i <= mUnderexposedLevel; ++i) {
+            count += mHistogram[i];
+        }
+        return count;
+    }
+
+    /**
+     * Number of pixels with a luma at or above the overexposed level.
+     */
+    public int getOverexposedCount() {
+        int count = 0;
+        for (int i = mOverexposedLevel; i < mHistogram.length; ++i) {
+            count += mHistogram[i];
+        }
+        return count;
+    }
+}
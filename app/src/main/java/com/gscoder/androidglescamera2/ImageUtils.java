@@ -8,14 +8,12 @@ package com.gscoder.androidglescamera2;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.media.Image;
-import android.os.Environment;
 import android.util.Log;
 
 import junit.framework.Assert;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.nio.ByteBuffer;
 
 /**
@@ -23,60 +21,65 @@ import java.nio.ByteBuffer;
  **/
 public class ImageUtils {
     private static final String TAG = ImageUtils.class.getSimpleName();
-    @SuppressWarnings("unused")
-
-    // This value is 2 ^ 18 - 1, and is used to clamp the RGB values before their ranges
-    // are normalized to eight bits.
-    static final int kMaxChannelValue = 262143;
-
 
     /**
      * Utility method to compute the allocated size in bytes of a YUV420SP image
      * of the given dimensions.
      */
     public static int getYUVByteSize(final int width, final int height) {
-        // The luminance plane requires 1 byte per pixel.
-        final int ySize = width * height;
-
-        // The UV plane works on 2x2 blocks, so dimensions with odd size must be rounded up.
-        // Each 2x2 block takes 2 bytes to encode, one each for U and V.
-        final int uvSize = ((width + 1) / 2) * ((height + 1) / 2) * 2;
-
-        return ySize + uvSize;
+        return YuvConverter.getYUVByteSize(width, height);
     }
 
+    private static SnapshotWriter sSnapshotWriter;
+
     /**
      * Saves a Bitmap object to disk for analysis.
      *
+     * The bitmap is copied and written as {@code preview.png} in the background, see
+     * {@link SnapshotWriter} for control over format, file names and queueing.
+     *
      * @param bitmap The bitmap to save.
      */
     public static void saveBitmap(final Bitmap bitmap) {
-        final String root =
-                Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator + "tensorflow";
-        Log.i(TAG, String.format("Saving %dx%d bitmap to %s.", bitmap.getWidth(), bitmap.getHeight(), root));
-        final File myDir = new File(root);
-
-        if (!myDir.mkdirs()) {
-            Log.i(TAG, String.format("Make dir failed"));
-        }
-
-        final String fname = "preview.png";
-        final File file = new File(myDir, fname);
-        if (file.exists()) {
-            file.delete();
+        synchronized (ImageUtils.class) {
+            if (sSnapshotWriter == null) {
+                sSnapshotWriter = new SnapshotWriter(SnapshotWriter.getDefaultDirectory(), "preview", 1, 1,
+                        SnapshotWriter.DropPolicy.DROP_OLDEST);
+                sSnapshotWriter.setQuality(99);
+            }
         }
-        try {
-            final FileOutputStream out = new FileOutputStream(file);
-            bitmap.compress(Bitmap.CompressFormat.PNG, 99, out);
-            out.flush();
-            out.close();
-        } catch (final Exception e) {
-            Log.e(TAG, "Exception!", e);
+        if (!sSnapshotWriter.submit(bitmap, SnapshotWriter.Format.PNG)) {
+            Log.i(TAG, String.format("Dropped %dx%d bitmap.", bitmap.getWidth(), bitmap.getHeight()));
         }
     }
 
+    /**
+     * Points {@code frame} at the planes of {@code image} without copying them. The frame is
+     * only valid until the image is closed.
+     */
+    public static YuvFrame wrapImage(Image image, YuvFrame frame) {
+        final Image.Plane[] planes = image.getPlanes();
+        return frame.set(planes[0].getBuffer(), planes[1].getBuffer(), planes[2].getBuffer(),
+                image.getWidth(), image.getHeight(),
+                planes[0].getRowStride(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                image.getTimestamp());
+    }
+
+    /**
+     * Converts an image straight from its plane buffers, without copying them to the heap first.
+     */
+    public static int[] convertImageToARGB8888(Image image, int[] output, YuvFrame frame, YuvToRgbKernel kernel) {
+        convertYUV420ToARGB8888(wrapImage(image, frame), output, kernel);
+        frame.clear();
+        return output;
+    }
 
     public static int[] convertImageToBitmap(Image image, int[] output, byte[][] cachedYuvBytes) {
+        return convertImageToBitmap(image, output, cachedYuvBytes, YuvToRgbKernels.DEFAULT);
+    }
+
+    public static int[] convertImageToBitmap(Image image, int[] output, byte[][] cachedYuvBytes,
+                                             YuvToRgbKernel kernel) {
         if (cachedYuvBytes == null || cachedYuvBytes.length != 3) {
             cachedYuvBytes = new byte[3][];
         }
@@ -88,73 +91,82 @@ public class ImageUtils {
         final int uvPixelStride = planes[1].getPixelStride();
 
         convertYUV420ToARGB8888(cachedYuvBytes[0], cachedYuvBytes[1], cachedYuvBytes[2],
-                image.getWidth(), image.getHeight(), yRowStride, uvRowStride, uvPixelStride, output);
+                image.getWidth(), image.getHeight(), yRowStride, uvRowStride, uvPixelStride, output, kernel);
         return output;
     }
 
     public static void convertYUV420ToARGB8888(byte[] yData, byte[] uData, byte[] vData, int width, int height,
                                                int yRowStride, int uvRowStride, int uvPixelStride, int[] out) {
-        int i = 0;
-        for (int y = 0; y < height; y++) {
-            int pY = yRowStride * y;
-            int uv_row_start = uvRowStride * (y >> 1);
-            int pU = uv_row_start;
-            int pV = uv_row_start;
-
-            for (int x = 0; x < width; x++) {
-                int uv_offset = (x >> 1) * uvPixelStride;
-                out[i++] = YUV2RGB(
-                        convertByteToInt(yData, pY + x),
-                        convertByteToInt(uData, pU + uv_offset),
-                        convertByteToInt(vData, pV + uv_offset));
-            }
-        }
+        YuvConverter.convertYUV420ToARGB8888(yData, uData, vData, width, height, yRowStride, uvRowStride,
+                uvPixelStride, out, YuvToRgbKernels.DEFAULT);
     }
 
-    private static int convertByteToInt(byte[] arr, int pos) {
-        return arr[pos] & 0xFF;
+    public static void convertYUV420ToARGB8888(byte[] yData, byte[] uData, byte[] vData, int width, int height,
+                                               int yRowStride, int uvRowStride, int uvPixelStride, int[] out,
+                                               YuvToRgbKernel kernel) {
+        YuvConverter.convertYUV420ToARGB8888(yData, uData, vData, width, height, yRowStride, uvRowStride,
+                uvPixelStride, out, kernel);
     }
 
-    private static int YUV2RGB(int nY, int nU, int nV) {
-        nY -= 16;
-        nU -= 128;
-        nV -= 128;
-        if (nY < 0) nY = 0;
+    public static void convertYUV420ToARGB8888(YuvFrame frame, int[] out, YuvToRgbKernel kernel) {
+        YuvConverter.convertYUV420ToARGB8888(frame, out, kernel);
+    }
 
-        // This is the floating point equivalent. We do the conversion in integer
-        // because some Android devices do not have floating point in hardware.
-        // nR = (int)(1.164 * nY + 2.018 * nU);
-        // nG = (int)(1.164 * nY - 0.813 * nV - 0.391 * nU);
-        // nB = (int)(1.164 * nY + 1.596 * nV);
+    /**
+     * Converts {@code frame} and fills {@code stats} with its luma histogram, mean color and
+     * exposure counts in the same pass, so the pixels are not read a second time.
+     */
+    public static void convertYUV420ToARGB8888(YuvFrame frame, int[] out, YuvToRgbKernel kernel, FrameStats stats) {
+        YuvConverter.convertYUV420ToARGB8888(frame, out, kernel, stats);
+    }
 
-        int nR = (int) (1192 * nY + 1634 * nV);
-        int nG = (int) (1192 * nY - 833 * nV - 400 * nU);
-        int nB = (int) (1192 * nY + 2066 * nU);
+    /**
+     * Converts only the {@code roi} rectangle of {@code frame}, in frame coordinates, into
+     * {@code out} as packed {@code roi.width() * roi.height()} pixels.
+     */
+    public static void convertYUV420ToARGB8888(YuvFrame frame, Rect roi, int[] out, YuvToRgbKernel kernel) {
+        YuvConverter.convertRegion(frame, roi.left, roi.top, roi.width(), roi.height(), out, kernel);
+    }
 
-        nR = Math.min(kMaxChannelValue, Math.max(0, nR));
-        nG = Math.min(kMaxChannelValue, Math.max(0, nG));
-        nB = Math.min(kMaxChannelValue, Math.max(0, nB));
+    /**
+     * Copies the luma samples of the {@code roi} rectangle of {@code frame} into {@code out} as
+     * packed {@code roi.width() * roi.height()} bytes.
+     */
+    public static void extractLuma(YuvFrame frame, Rect roi, byte[] out) {
+        YuvConverter.extractLumaRegion(frame, roi.left, roi.top, roi.width(), roi.height(), out);
+    }
 
-        nR = (nR >> 10) & 0xff;
-        nG = (nG >> 10) & 0xff;
-        nB = (nB >> 10) & 0xff;
+    /**
+     * Copies the luma plane of {@code frame} into {@code out} as packed {@code width * height}
+     * bytes, dropping the row padding. The chroma planes are not read.
+     */
+    public static void extractLuma(YuvFrame frame, byte[] out) {
+        YuvConverter.extractLuma(frame, out);
+    }
 
-        return 0xff000000 | (nR << 16) | (nG << 8) | nB;
+    /**
+     * Copies the luma plane of {@code frame} into {@code out}, starting at its current position,
+     * as packed {@code width * height} bytes. The position of {@code out} is advanced past the
+     * written bytes.
+     */
+    public static void extractLuma(YuvFrame frame, ByteBuffer out) {
+        YuvConverter.extractLuma(frame, out);
     }
 
     private static void fillBytes(final Image.Plane[] planes, final byte[][] yuvBytes) {
         // Because of the variable row stride it's not possible to know in
         // advance the actual necessary dimensions of the yuv planes.
         for (int i = 0; i < planes.length; ++i) {
-            final ByteBuffer buffer = planes[i].getBuffer();
-            if (yuvBytes[i] == null || yuvBytes[i].length != buffer.capacity()) {
-                yuvBytes[i] = new byte[buffer.capacity()];
-            }
-            buffer.get(yuvBytes[i]);
+            yuvBytes[i] = YuvConverter.fillBytes(planes[i].getBuffer(), yuvBytes[i]);
         }
     }
 
 
+    /**
+     * Draws the center square of {@code src} into {@code dst}. When the source is a camera
+     * frame, {@link YuvTransform} produces the same result straight from the YUV planes
+     * without converting the pixels that are cropped away.
+     */
     public static void cropAndRescaleBitmap(final Bitmap src, final Bitmap dst, int sensorOrientation) {
         Assert.assertEquals(dst.getWidth(), dst.getHeight());
         final float minDim = Math.min(src.getWidth(), src.getHeight());
@@ -15,12 +15,16 @@ import android.widget.Toast;
 
 import java.util.Arrays;
 
-public class MainActivity extends FragmentActivity implements PermissionsHelper.PermissionsListener, CameraGLSurfaceView.OnBitmapAvailableListener {
+public class MainActivity extends FragmentActivity implements PermissionsHelper.PermissionsListener, CameraGLSurfaceView.OnFrameAvailableListener {
     private static final String TAG = MainActivity.class.getSimpleName();
     private CameraGLSurfaceView mCameraGLSurfaceView;
     private ImageView mImageView;
     private PermissionsHelper mPermissionsHelper;
     private boolean mPermissionsSatisfied = false;
+    // Frame currently shown in mImageView, held until the next one replaces it.
+    private FrameBuffer mDisplayedFrame = null;
+    // Set on the main thread between onPause and onResume, frames still posted then are dropped.
+    private boolean mPaused = true;
 
     @Override
     public void onCreate ( Bundle savedInstanceState) {
@@ -35,7 +39,7 @@ public class MainActivity extends FragmentActivity implements PermissionsHelper.
 
         mCameraGLSurfaceView = (CameraGLSurfaceView) findViewById(R.id.cameraGLSurfaceView);
         mImageView = (ImageView) findViewById(R.id.imageView);
-        mCameraGLSurfaceView.setOnBitmapAvailableListener(this);
+        mCameraGLSurfaceView.setOnFrameAvailableListener(this);
 
         if(PermissionsHelper.isMorHigher())
             setupPermissions();
@@ -44,6 +48,7 @@ public class MainActivity extends FragmentActivity implements PermissionsHelper.
     @Override
     protected void onResume() {
         super.onResume();
+        mPaused = false;
         mCameraGLSurfaceView.onResume();
 
         if(PermissionsHelper.isMorHigher() && !mPermissionsSatisfied) {
@@ -57,6 +62,13 @@ public class MainActivity extends FragmentActivity implements PermissionsHelper.
     @Override
     protected void onPause() {
         mCameraGLSurfaceView.onPause();
+        mPaused = true;
+        // Give the shown frame's buffer back, the pipeline that owns the pool is stopped.
+        mImageView.setImageBitmap(null);
+        if (mDisplayedFrame != null) {
+            mDisplayedFrame.release();
+            mDisplayedFrame = null;
+        }
         super.onPause();
     }
 
@@ -71,6 +83,7 @@ public class MainActivity extends FragmentActivity implements PermissionsHelper.
     public void onPermissionsSatisfied() {
         Log.d(TAG, "onPermissionsSatisfied()");
         mPermissionsSatisfied = true;
+        mCameraGLSurfaceView.openCamera();
 
     }
 
@@ -83,11 +96,24 @@ public class MainActivity extends FragmentActivity implements PermissionsHelper.
     }
 
     @Override
-    public void onBitmapAvailable(final Bitmap var1) {
+    public void onFrameAvailable(final FrameBuffer frame) {
+        if (frame.getFormat() != FrameFormat.ARGB_8888) {
+            return;
+        }
+        // Keep the frame's buffer from being reused while the ImageView shows it.
+        frame.retain();
         new Handler(Looper.getMainLooper()).post(new Runnable() {
             @Override
             public void run() {
-                mImageView.setImageBitmap(var1);
+                if (mPaused) {
+                    frame.release();
+                    return;
+                }
+                mImageView.setImageBitmap((Bitmap) frame.getTag());
+                if (mDisplayedFrame != null) {
+                    mDisplayedFrame.release();
+                }
+                mDisplayedFrame = frame;
             }
         });
     }
@@ -0,0 +1,178 @@
+package com.gscoder.androidglescamera2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides whether a frame differs enough from the last processed one to be worth processing,
+ * by comparing a sparse grid of luma samples.
+ *
+ * Only {@code columns * rows} bytes of the Y plane are read per frame, so the check is cheap
+ * next to a full conversion. A frame passes when the mean absolute difference of its samples
+ * against those of the last passing frame reaches the threshold, or when it is due as a
+ * keyframe.
+ *
+ * An instance is not safe for concurrent use.
+ */
+public class MotionDetector {
+    private final int mColumns;
+    private final int mRows;
+    private final int mThreshold;
+    private final int mKeyframeInterval;
+
+    private byte[] mReference;
+    // The reference before the last passing frame, kept so reject() can restore it.
+    private byte[] mPrevious;
+    private int[] mSampleOffsets = null;
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private int mYRowStride = -1;
+    private boolean mHasReference;
+    private int mFramesSinceProcessed;
+    private int mLastDifference;
+    // State before the last passing frame, valid while mCanReject.
+    private boolean mPreviousHasReference;
+    private int mPreviousFramesSinceProcessed;
+    private boolean mCanReject;
+
+    /**
+     * @param columns          Number of sample columns across the frame.
+     * @param rows             Number of sample rows down the frame.
+     * @param threshold        Mean absolute luma difference, 0..255, at which a frame passes.
+     * @param keyframeInterval At least one of every {@code keyframeInterval} consecutive frames
+     *                         passes, whatever its difference. 0 disables keyframes.
+     */
+    public MotionDetector(int columns, int rows, int threshold, int keyframeInterval) {
+        if (columns < 1 || rows < 1) {
+            throw new IllegalArgumentException(String.format("Invalid sample grid %dx%d", columns, rows));
+        }
+        if (threshold < 0 || threshold > 255) {
+            throw new IllegalArgumentException("threshold must be within 0..255, was " + threshold);
+        }
+        if (keyframeInterval < 0) {
+            throw new IllegalArgumentException("keyframeInterval must not be negative, was " + keyframeInterval);
+        }
+        mColumns = columns;
+        mRows = rows;
+        mThreshold = threshold;
+        mKeyframeInterval = keyframeInterval;
+        mReference = new byte[columns * rows];
+        mPrevious = new byte[columns * rows];
+    }
+
+    /**
+     * Samples {@code frame} and returns whether it should be processed. A passing frame becomes
+     * the reference the following frames are compared against, unless it is handed back with
+     * {@link #reject} because it could not be processed after all.
+     */
+    public boolean shouldProcess(YuvFrame frame) {
+        prepare(frame);
+        mCanReject = false;
+
+        final ByteBuffer yData = frame.getY();
+        final int[] offsets = mSampleOffsets;
+        final byte[] reference = mReference;
+
+        if (!mHasReference) {
+            pass(yData);
+            mLastDifference = 255;
+            return true;
+        }
+
+        int sum = 0;
+        for (int i = 0; i < offsets.length; ++i) {
+            sum += Math.abs((yData.get(offsets[i]) & 0xFF) - (reference[i] & 0xFF));
+        }
+        mLastDifference = sum / offsets.length;
+
+        final boolean keyframe = mKeyframeInterval > 0 && mFramesSinceProcessed + 1 >= mKeyframeInterval;
+        if (mLastDifference < mThreshold && !keyframe) {
+            ++mFramesSinceProcessed;
+            return false;
+        }
+
+        pass(yData);
+        return true;
+    }
+
+    /**
+     * Undoes the last {@link #shouldProcess} that passed, for a frame that was dropped instead
+     * of processed, so its motion is still detected in the next frame. Has no effect after a
+     * frame that did not pass.
+     */
+    public void reject() {
+        if (!mCanReject) {
+            return;
+        }
+        mCanReject = false;
+        final byte[] reference = mReference;
+        mReference = mPrevious;
+        mPrevious = reference;
+        mHasReference = mPreviousHasReference;
+        mFramesSinceProcessed = mPreviousFramesSinceProcessed + 1;
+    }
+
+    private void pass(ByteBuffer yData) {
+        final byte[] previous = mReference;
+        mReference = mPrevious;
+        mPrevious = previous;
+        mPreviousHasReference = mHasReference;
+        mPreviousFramesSinceProcessed = mFramesSinceProcessed;
+        mCanReject = true;
+
+        sample(yData);
+        mHasReference = true;
+        mFramesSinceProcessed = 0;
+    }
+
+    /**
+     * Mean absolute difference measured by the last call to {@link #shouldProcess}.
+     */
+    public int getLastDifference() {
+        return mLastDifference;
+    }
+
+    /**
+     * Forgets the reference frame, so the next frame always passes.
+     */
+    public void reset() {
+        mHasReference = false;
+        mFramesSinceProcessed = 0;
+        mCanReject = false;
+    }
+
+    private void sample(ByteBuffer yData) {
+        final int[] offsets = mSampleOffsets;
+        for (int i = 0; i < offsets.length; ++i) {
+            mReference[i] = yData.get(offsets[i]);
+        }
+    }
+
+    /**
+     * Lays the sample grid out over the frame, centering each sample in its grid cell. A new
+     * frame size or row stride invalidates the reference.
+     */
+    private void prepare(YuvFrame frame) {
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final int yRowStride = frame.getYRowStride();
+        if (width == mWidth && height == mHeight && yRowStride == mYRowStride) {
+            return;
+        }
+
+        final int[] offsets = new int[mColumns * mRows];
+        int i = 0;
+        for (int r = 0; r < mRows; ++r) {
+            final int y = (int) ((2L * r + 1) * height / (2L * mRows));
+            for (int c = 0; c < mColumns; ++c) {
+                final int x = (int) ((2L * c + 1) * width / (2L * mColumns));
+                offsets[i++] = y * yRowStride + x;
+            }
+        }
+
+        mSampleOffsets = offsets;
+        mWidth = width;
+        mHeight = height;
+        mYRowStride = yRowStride;
+        reset();
+    }
+}
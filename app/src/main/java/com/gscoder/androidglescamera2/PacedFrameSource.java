@@ -0,0 +1,127 @@
+package com.gscoder.androidglescamera2;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base for frame sources that produce frames on their own thread at a fixed rate.
+ *
+ * Like a camera sensor, the source keeps its schedule when the listener is slow: frame slots
+ * that passed while the listener was busy are skipped and counted as dropped, so throughput
+ * and drop rate can be measured without a device.
+ */
+public abstract class PacedFrameSource implements FrameSource {
+    private final String mName;
+    private volatile long mFramePeriodNs;
+
+    private final YuvFrame mFrame = new YuvFrame();
+    private Thread mThread;
+    private volatile boolean mRunning;
+    private volatile long mDeliveredCount;
+    private volatile long mDroppedCount;
+
+    /**
+     * @param fps Frames per second, or 0 to deliver frames as fast as the listener takes them.
+     */
+    protected PacedFrameSource(String name, float fps) {
+        mName = name;
+        setFrameRate(fps);
+    }
+
+    public void setFrameRate(float fps) {
+        if (fps < 0) {
+            throw new IllegalArgumentException("fps must not be negative, was " + fps);
+        }
+        mFramePeriodNs = fps > 0 ? (long) (1e9 / fps) : 0;
+    }
+
+    public long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /**
+     * Number of frame slots skipped because the listener was still busy with an earlier frame.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Fills {@code frame} with frame number {@code index}. Returns false when the source has
+     * no more frames.
+     *
+     * @param timestamp Timestamp to report for the frame, in nanoseconds.
+     */
+    protected abstract boolean produce(long index, long timestamp, YuvFrame frame);
+
+    /**
+     * Nanoseconds to wait before frame {@code index} at the configured rate. Subclasses can
+     * override it to pace frames differently.
+     */
+    protected long getFramePeriodNs(long index) {
+        return mFramePeriodNs;
+    }
+
+    @Override
+    public synchronized void start(final OnYuvFrameAvailableListener listener) {
+        if (mThread != null) {
+            throw new IllegalStateException(mName + " is already started");
+        }
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                deliverFrames(listener);
+            }
+        }, mName);
+        mThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mRunning = false;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    private void deliverFrames(OnYuvFrameAvailableListener listener) {
+        final long startTime = System.nanoTime();
+        long due = startTime;
+        long index = 0;
+
+        while (mRunning) {
+            if (!produce(index, due, mFrame)) {
+                break;
+            }
+            listener.onYuvFrameAvailable(mFrame);
+            mFrame.clear();
+            ++mDeliveredCount;
+            ++index;
+
+            final long period = getFramePeriodNs(index);
+            if (period <= 0) {
+                due = System.nanoTime();
+                continue;
+            }
+            due += period;
+            long now = System.nanoTime();
+            if (now - due > period) {
+                // The listener overran whole frame slots; skip them as the camera would.
+                final long missed = (now - due) / period;
+                mDroppedCount += missed;
+                index += missed;
+                due += missed * period;
+            }
+            while (mRunning && (now = System.nanoTime()) < due) {
+                LockSupport.parkNanos(due - now);
+            }
+        }
+    }
+}
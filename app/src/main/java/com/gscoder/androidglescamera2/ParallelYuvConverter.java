@@ -0,0 +1,249 @@
+package com.gscoder.androidglescamera2;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts YUV_420_888 frames to ARGB_8888 by splitting them into horizontal bands and
+ * converting the bands concurrently on a reusable worker pool.
+ *
+ * Band boundaries always fall on even rows, so each band owns whole chroma rows and the
+ * output is bit-identical to {@link YuvConverter#convertYUV420ToARGB8888}.
+ */
+public class ParallelYuvConverter {
+    private static final String TAG = ParallelYuvConverter.class.getSimpleName();
+
+    private final int mThreadCount;
+    private final ExecutorService mExecutor;
+    private final BandTask[] mTasks;
+
+    /**
+     * @param threadCount Number of threads taking part in a conversion, including the calling
+     *                    thread. A value of 1 converts serially on the caller.
+     */
+    public ParallelYuvConverter(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1, was " + threadCount);
+        }
+        mThreadCount = threadCount;
+        mExecutor = threadCount > 1 ? Executors.newFixedThreadPool(threadCount - 1, new WorkerThreadFactory()) : null;
+
+        mTasks = new BandTask[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+            mTasks[i] = new BandTask();
+        }
+    }
+
+    /**
+     * Number of cores the runtime reports, handy as an upper bound for {@code threadCount}.
+     */
+    public static int availableCores() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    public void convertYUV420ToARGB8888(byte[] yData, byte[] uData, byte[] vData, int width, int height,
+                                        int yRowStride, int uvRowStride, int uvPixelStride, int[] out) {
+        convertYUV420ToARGB8888(yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride, out,
+                YuvToRgbKernels.DEFAULT);
+    }
+
+    public void convertYUV420ToARGB8888(byte[] yData, byte[] uData, byte[] vData, int width, int height,
+                                        int yRowStride, int uvRowStride, int uvPixelStride, int[] out,
+                                        YuvToRgbKernel kernel) {
+        // Round band height up to an even row count so no chroma row is shared between bands.
+        int bandRows = (height + mThreadCount - 1) / mThreadCount;
+        bandRows = (bandRows + 1) & ~1;
+
+        int bands = 0;
+        for (int rowStart = 0; rowStart < height; rowStart += bandRows) {
+            BandTask task = mTasks[bands++];
+            task.set(yData, uData, vData, width, yRowStride, uvRowStride, uvPixelStride, out, kernel,
+                    rowStart, Math.min(height, rowStart + bandRows));
+        }
+        runBands(bands);
+    }
+
+    private void runBands(int bands) {
+        if (bands == 1 || mExecutor == null) {
+            for (int i = 0; i < bands; ++i) {
+                mTasks[i].convert();
+            }
+            return;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(bands - 1);
+        for (int i = 1; i < bands; ++i) {
+            mTasks[i].latch = latch;
+            try {
+                mExecutor.execute(mTasks[i]);
+            } catch (RejectedExecutionException e) {
+                // The pool is being shut down, finish the band on this thread instead.
+                mTasks[i].run();
+            }
+        }
+
+        // The calling thread converts the first band instead of idling on the latch.
+        RuntimeException firstError = null;
+        try {
+            mTasks[0].convert();
+        } catch (RuntimeException e) {
+            // Held until the other bands are done, they still write to out.
+            firstError = e;
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable bandError = null;
+        for (int i = 1; i < bands; ++i) {
+            if (bandError == null) {
+                bandError = mTasks[i].error;
+            }
+            mTasks[i].error = null;
+        }
+        if (firstError != null) {
+            throw firstError;
+        }
+        if (bandError != null) {
+            throw new RuntimeException("Conversion band failed.", bandError);
+        }
+    }
+
+    public void convertYUV420ToARGB8888(YuvFrame frame, int[] out, YuvToRgbKernel kernel) {
+        convertYUV420ToARGB8888(frame, out, kernel, null);
+    }
+
+    /**
+     * Converts {@code frame} and, when {@code stats} is not null, fills it in the same pass.
+     * Each band collects its own statistics, merged once all bands are done.
+     */
+    public void convertYUV420ToARGB8888(YuvFrame frame, int[] out, YuvToRgbKernel kernel, FrameStats stats) {
+        final int height = frame.getHeight();
+        int bandRows = (height + mThreadCount - 1) / mThreadCount;
+        bandRows = (bandRows + 1) & ~1;
+
+        int bands = 0;
+        for (int rowStart = 0; rowStart < height; rowStart += bandRows) {
+            mTasks[bands++].set(frame, out, kernel, stats != null, rowStart, Math.min(height, rowStart + bandRows));
+        }
+        runBands(bands);
+
+        if (stats != null) {
+            stats.reset();
+            for (int i = 0; i < bands; ++i) {
+                stats.merge(mTasks[i].stats);
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads once the bands already queued have completed.
+     */
+    public void shutdown() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    private static class BandTask implements Runnable {
+        YuvFrame frame;
+        byte[] yData;
+        byte[] uData;
+        byte[] vData;
+        int width;
+        int yRowStride;
+        int uvRowStride;
+        int uvPixelStride;
+        int[] out;
+        YuvToRgbKernel kernel;
+        int rowStart;
+        int rowEnd;
+        boolean collectStats;
+        final FrameStats stats = new FrameStats();
+
+        CountDownLatch latch;
+        volatile Throwable error;
+
+        void set(byte[] yData, byte[] uData, byte[] vData, int width,
+                 int yRowStride, int uvRowStride, int uvPixelStride, int[] out, YuvToRgbKernel kernel,
+                 int rowStart, int rowEnd) {
+            this.frame = null;
+            this.collectStats = false;
+            this.yData = yData;
+            this.uData = uData;
+            this.vData = vData;
+            this.width = width;
+            this.yRowStride = yRowStride;
+            this.uvRowStride = uvRowStride;
+            this.uvPixelStride = uvPixelStride;
+            this.out = out;
+            this.kernel = kernel;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+        }
+
+        void set(YuvFrame frame, int[] out, YuvToRgbKernel kernel, boolean collectStats, int rowStart, int rowEnd) {
+            this.frame = frame;
+            this.collectStats = collectStats;
+            this.yData = null;
+            this.uData = null;
+            this.vData = null;
+            this.out = out;
+            this.kernel = kernel;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+        }
+
+        void convert() {
+            if (frame != null && collectStats) {
+                stats.reset();
+                YuvConverter.convertYUV420ToARGB8888(frame, out, kernel, stats, rowStart, rowEnd);
+            } else if (frame != null) {
+                YuvConverter.convertYUV420ToARGB8888(frame, out, kernel, rowStart, rowEnd);
+            } else {
+                YuvConverter.convertYUV420ToARGB8888(yData, uData, vData, width,
+                        yRowStride, uvRowStride, uvPixelStride, out, kernel, rowStart, rowEnd);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                convert();
+            } catch (Throwable t) {
+                error = t;
+            } finally {
+                latch.countDown();
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, TAG + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.gscoder.androidglescamera2;
+
+/**
+ * Bookkeeping for a bounded ring of held preview frames, matched to analysis results by sensor
+ * timestamp. The renderer stores the pixels; this class decides which slot each new preview
+ * frame goes to and which held frame is shown for a finished analysis.
+ *
+ * One slot more than the capacity exists so the frame on screen is never overwritten while
+ * newer frames are held. When the ring is full the oldest held frame is evicted; if analysis
+ * takes longer than the ring covers, results are shown with the oldest frame still held, so
+ * the display keeps moving, just no longer in step with the results.
+ */
+public class PreviewHoldQueue {
+    /** {@link #match} result: the analyzed frame is not held yet, try again later. */
+    public static final int WAIT = -2;
+
+    private final long[] mTimestamps;
+    private final boolean[] mHeld;
+    private int mDisplayed = -1;
+
+    private long mEvictedCount;
+    private long mExactCount;
+    private long mNearestCount;
+    private long mMissedCount;
+
+    public PreviewHoldQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+        }
+        mTimestamps = new long[capacity + 1];
+        mHeld = new boolean[capacity + 1];
+    }
+
+    /**
+     * Number of slots the renderer needs storage for.
+     */
+    public int getSlotCount() {
+        return mTimestamps.length;
+    }
+
+    /**
+     * Picks the slot a new preview frame captured at {@code timestamp} is stored in, evicting
+     * the oldest held frame if no slot is free.
+     */
+    public int hold(long timestamp) {
+        int slot = -1;
+        int oldest = -1;
+        for (int i = 0; i < mTimestamps.length; ++i) {
+            if (i == mDisplayed) {
+                continue;
+            }
+            if (!mHeld[i]) {
+                slot = i;
+                break;
+            }
+            if (oldest < 0 || mTimestamps[i] < mTimestamps[oldest]) {
+                oldest = i;
+            }
+        }
+        if (slot < 0) {
+            slot = oldest;
+            ++mEvictedCount;
+        }
+        mTimestamps[slot] = timestamp;
+        mHeld[slot] = true;
+        return slot;
+    }
+
+    /**
+     * Finds the held frame for an analysis of the frame captured at {@code timestamp}: that
+     * frame itself, or else the newest older one, or if those were all evicted, the oldest
+     * newer one. It becomes the displayed frame and every frame up to it is released. Returns
+     * the slot, or {@link #WAIT} while no frame at or after {@code timestamp} is held yet.
+     */
+    public int match(long timestamp) {
+        int newest = -1;
+        int oldest = -1;
+        int best = -1;
+        for (int i = 0; i < mTimestamps.length; ++i) {
+            if (!mHeld[i] || i == mDisplayed) {
+                continue;
+            }
+            if (newest < 0 || mTimestamps[i] > mTimestamps[newest]) {
+                newest = i;
+            }
+            if (oldest < 0 || mTimestamps[i] < mTimestamps[oldest]) {
+                oldest = i;
+            }
+            if (mTimestamps[i] <= timestamp && (best < 0 || mTimestamps[i] > mTimestamps[best])) {
+                best = i;
+            }
+        }
+        if (newest < 0 || mTimestamps[newest] < timestamp) {
+            return WAIT;
+        }
+        if (best < 0) {
+            // Everything up to the analyzed frame was evicted; every held frame is newer.
+            ++mMissedCount;
+            best = oldest;
+        } else if (mTimestamps[best] == timestamp) {
+            ++mExactCount;
+        } else {
+            ++mNearestCount;
+        }
+
+        final long shown = mTimestamps[best];
+        for (int i = 0; i < mTimestamps.length; ++i) {
+            if (mHeld[i] && mTimestamps[i] <= shown) {
+                mHeld[i] = false;
+            }
+        }
+        mDisplayed = best;
+        return best;
+    }
+
+    /**
+     * Slot of the frame on screen, or -1 before the first match.
+     */
+    public int getDisplayed() {
+        return mDisplayed;
+    }
+
+    /**
+     * Timestamp of the frame on screen.
+     */
+    public long getDisplayedTimestamp() {
+        return mDisplayed >= 0 ? mTimestamps[mDisplayed] : 0;
+    }
+
+    public int getHeldCount() {
+        int count = 0;
+        for (int i = 0; i < mHeld.length; ++i) {
+            if (mHeld[i] && i != mDisplayed) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    public void clear() {
+        for (int i = 0; i < mHeld.length; ++i) {
+            mHeld[i] = false;
+        }
+        mDisplayed = -1;
+    }
+
+    public long getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    /**
+     * Analyses shown with exactly the preview frame they were computed on.
+     */
+    public long getExactCount() {
+        return mExactCount;
+    }
+
+    /**
+     * Analyses shown with the newest held frame before theirs, which had been evicted.
+     */
+    public long getNearestCount() {
+        return mNearestCount;
+    }
+
+    /**
+     * Analyses whose frame and every older one had been evicted, shown with the oldest newer
+     * frame instead. A steady count means the hold capacity is below the analysis latency.
+     */
+    public long getMissedCount() {
+        return mMissedCount;
+    }
+}
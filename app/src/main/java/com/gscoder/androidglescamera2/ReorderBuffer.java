@@ -0,0 +1,84 @@
+package com.gscoder.androidglescamera2;
+
+/**
+ * Restores capture order after frames were processed out of order by several workers.
+ *
+ * A worker {@link #reserve reserves} a sequence number for each frame it takes, in the order
+ * it takes them, and {@link #complete completes} it once processed, with the result or null if
+ * the frame was dropped. {@link #hasNext} and {@link #next} then hand out results strictly in
+ * sequence order, a completed result waiting for all earlier ones.
+ *
+ * The window bounds how far completed results may run ahead of the oldest one still being
+ * processed; {@link #reserve} blocks while it is full.
+ */
+public class ReorderBuffer<T> {
+    private final Object[] mResults;
+    private final boolean[] mCompleted;
+    private long mNextSequence;
+    private long mHead;
+
+    public ReorderBuffer(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1, was " + window);
+        }
+        mResults = new Object[window];
+        mCompleted = new boolean[window];
+    }
+
+    /**
+     * Takes the next sequence number, waiting while the window is full.
+     */
+    public synchronized long reserve() throws InterruptedException {
+        while (mNextSequence - mHead >= mResults.length) {
+            wait();
+        }
+        return mNextSequence++;
+    }
+
+    /**
+     * Stores the result of {@code sequence}, null when the frame produced none.
+     */
+    public synchronized void complete(long sequence, T result) {
+        if (sequence < mHead || sequence >= mNextSequence) {
+            throw new IllegalArgumentException("Sequence " + sequence + " is not pending");
+        }
+        final int slot = (int) (sequence % mResults.length);
+        if (mCompleted[slot]) {
+            throw new IllegalStateException("Sequence " + sequence + " completed twice");
+        }
+        mResults[slot] = result;
+        mCompleted[slot] = true;
+    }
+
+    /**
+     * Whether the oldest pending sequence is complete.
+     */
+    public synchronized boolean hasNext() {
+        return mHead < mNextSequence && mCompleted[(int) (mHead % mResults.length)];
+    }
+
+    /**
+     * Removes and returns the result of the oldest pending sequence, which must be complete.
+     * Returns null for frames that produced no result.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T next() {
+        if (!hasNext()) {
+            throw new IllegalStateException("Sequence " + mHead + " is not complete");
+        }
+        final int slot = (int) (mHead % mResults.length);
+        final T result = (T) mResults[slot];
+        mResults[slot] = null;
+        mCompleted[slot] = false;
+        ++mHead;
+        notifyAll();
+        return result;
+    }
+
+    /**
+     * Number of reserved sequences not yet handed out by {@link #next}.
+     */
+    public synchronized int getPendingCount() {
+        return (int) (mNextSequence - mHead);
+    }
+}
@@ -0,0 +1,88 @@
+package com.gscoder.androidglescamera2;
+
+import java.io.IOException;
+
+/**
+ * Replays a {@link YuvRecording}, for running the pipeline on recorded camera output.
+ *
+ * Frames are paced either at a fixed rate or, with a rate of 0, by the intervals between
+ * their recorded timestamps. An output size smaller than the recording downscales each frame
+ * in the YUV domain before it is delivered.
+ */
+public class ReplayFrameSource extends PacedFrameSource {
+    private static final String TAG = ReplayFrameSource.class.getSimpleName();
+
+    private final YuvRecording mRecording;
+    private final boolean mLoop;
+    private final boolean mRecordedPacing;
+    private final YuvFrame mRecorded = new YuvFrame();
+    private YuvDownscaler mDownscaler;
+    private int mOutputWidth;
+    private int mOutputHeight;
+
+    /**
+     * @param fps  Frames per second, or 0 to keep the recorded frame intervals.
+     * @param loop Whether to start over after the last frame instead of stopping.
+     */
+    public ReplayFrameSource(YuvRecording recording, float fps, boolean loop) {
+        super(TAG, fps);
+        mRecording = recording;
+        mLoop = loop;
+        mRecordedPacing = fps == 0;
+    }
+
+    /**
+     * Delivers frames downscaled to {@code width x height}, or at the recorded size when
+     * either is 0. Call before {@link #start}.
+     */
+    public void setOutputSize(int width, int height) {
+        mOutputWidth = width;
+        mOutputHeight = height;
+        mDownscaler = null;
+    }
+
+    @Override
+    protected long getFramePeriodNs(long index) {
+        if (!mRecordedPacing) {
+            return super.getFramePeriodNs(index);
+        }
+        final int count = mRecording.getFrameCount();
+        final int frame = (int) (index % count);
+        if (frame == 0) {
+            // Looping back to the start; there is no recorded interval to keep.
+            return 0;
+        }
+        return Math.max(0, mRecording.getTimestamp(frame) - mRecording.getTimestamp(frame - 1));
+    }
+
+    @Override
+    protected boolean produce(long index, long timestamp, YuvFrame frame) {
+        final int count = mRecording.getFrameCount();
+        if (count == 0 || (!mLoop && index >= count)) {
+            return false;
+        }
+
+        try {
+            mRecording.readFrame((int) (index % count), mRecorded);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read frame " + index, e);
+        }
+
+        final int width = mRecorded.getWidth();
+        final int height = mRecorded.getHeight();
+        if (mOutputWidth <= 0 || mOutputHeight <= 0 || (mOutputWidth == width && mOutputHeight == height)) {
+            frame.set(mRecorded.getY(), mRecorded.getU(), mRecorded.getV(), width, height,
+                    mRecorded.getYRowStride(), mRecorded.getUvRowStride(), mRecorded.getUvPixelStride(),
+                    mRecorded.getTimestamp());
+            return true;
+        }
+
+        if (mDownscaler == null) {
+            mDownscaler = new YuvDownscaler(width, height, mOutputWidth, mOutputHeight);
+        }
+        final YuvFrame scaled = mDownscaler.downscale(mRecorded);
+        frame.set(scaled.getY(), scaled.getU(), scaled.getV(), scaled.getWidth(), scaled.getHeight(),
+                scaled.getYRowStride(), scaled.getUvRowStride(), scaled.getUvPixelStride(), scaled.getTimestamp());
+        return true;
+    }
+}
@@ -0,0 +1,265 @@
+package com.gscoder.androidglescamera2;
+
+import android.graphics.Bitmap;
+import android.os.Environment;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes bitmaps to disk on a background thread, so the frame thread never waits on
+ * compression or file I/O.
+ *
+ * {@link #submit} only copies the pixels into a pooled buffer and queues it. The pool holds
+ * {@code queueCapacity} buffers; when all of them are waiting to be written the
+ * {@link DropPolicy} decides whether the new snapshot or the oldest queued one is discarded.
+ * Files are named {@code prefix_N.ext}, with N cycling through {@code maxFiles} values so the
+ * directory never holds more than that many snapshots. With a single file the index is left
+ * out and every snapshot overwrites {@code prefix.ext}.
+ */
+public class SnapshotWriter {
+    private static final String TAG = SnapshotWriter.class.getSimpleName();
+
+    public enum Format {
+        PNG("png"),
+        JPEG("jpg"),
+        /**
+         * Uncompressed pixels, preceded by a header of three big-endian ints: width, height and
+         * bytes per row. The pixel bytes are those of the bitmap's config, RGBA for ARGB_8888.
+         */
+        RAW("raw");
+
+        final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    public enum DropPolicy {
+        /** Discard the snapshot being submitted. */
+        DROP_NEWEST,
+        /** Discard the oldest snapshot still waiting to be written. */
+        DROP_OLDEST
+    }
+
+    private static final Job STOP = new Job();
+
+    private final File mDirectory;
+    private final String mPrefix;
+    private final int mMaxFiles;
+    private final DropPolicy mDropPolicy;
+    private final int mQueueCapacity;
+
+    private final ArrayBlockingQueue<Job> mPending;
+    private final ArrayBlockingQueue<Job> mFree;
+    private int mAllocated;
+    private boolean mClosed;
+
+    private final Thread mThread;
+    // Owned by the writer thread, receives pixels for compression.
+    private Bitmap mBitmap;
+    private int mNextIndex;
+
+    private final AtomicInteger mWrittenCount = new AtomicInteger();
+    private final AtomicInteger mDroppedCount = new AtomicInteger();
+    private final AtomicInteger mFailedCount = new AtomicInteger();
+
+    private volatile int mQuality = 90;
+
+    /**
+     * @param directory     Where snapshots are written, created if needed.
+     * @param prefix        File name prefix.
+     * @param maxFiles      Number of file names cycled through, 1 for a plain {@code prefix.ext}.
+     * @param queueCapacity Number of snapshots that can wait to be written.
+     */
+    public SnapshotWriter(File directory, String prefix, int maxFiles, int queueCapacity, DropPolicy dropPolicy) {
+        if (maxFiles < 1) {
+            throw new IllegalArgumentException("maxFiles must be at least 1, was " + maxFiles);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1, was " + queueCapacity);
+        }
+        mDirectory = directory;
+        mPrefix = prefix;
+        mMaxFiles = maxFiles;
+        mQueueCapacity = queueCapacity;
+        mDropPolicy = dropPolicy;
+
+        // One extra slot so the stop marker always fits.
+        mPending = new ArrayBlockingQueue<Job>(queueCapacity + 1);
+        mFree = new ArrayBlockingQueue<Job>(queueCapacity);
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, TAG);
+        mThread.setPriority(Thread.MIN_PRIORITY);
+        mThread.start();
+    }
+
+    /**
+     * The directory {@link ImageUtils#saveBitmap} has always written to.
+     */
+    public static File getDefaultDirectory() {
+        return new File(Environment.getExternalStorageDirectory(), "tensorflow");
+    }
+
+    /**
+     * Sets the JPEG quality, and the PNG compression hint, of snapshots written from now on.
+     */
+    public void setQuality(int quality) {
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("quality must be within 0..100, was " + quality);
+        }
+        mQuality = quality;
+    }
+
+    /**
+     * Copies the pixels of {@code bitmap} and queues them to be written. Never blocks; returns
+     * false if the snapshot was dropped because the queue is full or the writer is closed.
+     */
+    public synchronized boolean submit(Bitmap bitmap, Format format) {
+        if (mClosed) {
+            mDroppedCount.incrementAndGet();
+            return false;
+        }
+
+        Job job = mFree.poll();
+        if (job == null && mAllocated < mQueueCapacity) {
+            job = new Job();
+            ++mAllocated;
+        }
+        if (job == null && mDropPolicy == DropPolicy.DROP_OLDEST) {
+            job = mPending.poll();
+            if (job != null) {
+                mDroppedCount.incrementAndGet();
+            }
+        }
+        if (job == null) {
+            mDroppedCount.incrementAndGet();
+            return false;
+        }
+
+        final int byteCount = bitmap.getByteCount();
+        if (job.pixels == null || job.pixels.capacity() < byteCount) {
+            job.pixels = ByteBuffer.allocate(byteCount);
+        }
+        job.pixels.clear();
+        bitmap.copyPixelsToBuffer(job.pixels);
+        job.pixels.flip();
+        job.width = bitmap.getWidth();
+        job.height = bitmap.getHeight();
+        job.config = bitmap.getConfig();
+        job.format = format;
+        job.quality = mQuality;
+
+        mPending.offer(job);
+        return true;
+    }
+
+    /**
+     * Stops accepting snapshots. Those already queued are still written, after which the
+     * writer thread exits.
+     */
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mPending.offer(STOP);
+    }
+
+    public int getWrittenCount() {
+        return mWrittenCount.get();
+    }
+
+    public int getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    public int getFailedCount() {
+        return mFailedCount.get();
+    }
+
+    private void writeLoop() {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(TAG, "Could not create " + mDirectory);
+        }
+
+        while (true) {
+            final Job job;
+            try {
+                job = mPending.take();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted, pending snapshots are discarded.");
+                return;
+            }
+            if (job == STOP) {
+                return;
+            }
+
+            final File file = new File(mDirectory, mMaxFiles == 1
+                    ? mPrefix + "." + job.format.extension
+                    : String.format(Locale.US, "%s_%d.%s", mPrefix, mNextIndex, job.format.extension));
+            mNextIndex = (mNextIndex + 1) % mMaxFiles;
+            try {
+                write(job, file);
+                mWrittenCount.incrementAndGet();
+            } catch (final IOException e) {
+                mFailedCount.incrementAndGet();
+                Log.e(TAG, "Failed to write " + file, e);
+            }
+            mFree.offer(job);
+        }
+    }
+
+    private void write(Job job, File file) throws IOException {
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            if (job.format == Format.RAW) {
+                final DataOutputStream data = new DataOutputStream(out);
+                data.writeInt(job.width);
+                data.writeInt(job.height);
+                data.writeInt(job.pixels.remaining() / job.height);
+                data.write(job.pixels.array(), job.pixels.arrayOffset(), job.pixels.remaining());
+                data.flush();
+                return;
+            }
+
+            if (mBitmap == null || mBitmap.getWidth() != job.width || mBitmap.getHeight() != job.height
+                    || mBitmap.getConfig() != job.config) {
+                mBitmap = Bitmap.createBitmap(job.width, job.height, job.config);
+            }
+            job.pixels.rewind();
+            mBitmap.copyPixelsFromBuffer(job.pixels);
+            final Bitmap.CompressFormat format =
+                    job.format == Format.JPEG ? Bitmap.CompressFormat.JPEG : Bitmap.CompressFormat.PNG;
+            if (!mBitmap.compress(format, job.quality, out)) {
+                throw new IOException("Compression failed");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static class Job {
+        ByteBuffer pixels;
+        int width;
+        int height;
+        Bitmap.Config config;
+        Format format;
+        int quality;
+    }
+}
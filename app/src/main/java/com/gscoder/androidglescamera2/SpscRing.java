@@ -0,0 +1,213 @@
+package com.gscoder.androidglescamera2;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free ring of preallocated slots between exactly one producer thread and one consumer
+ * thread. Nothing is allocated and no lock is taken per item: the producer
+ * {@link #claim claims} a free slot, fills it and {@link #publish publishes} it; the consumer
+ * {@link #take takes} the oldest published slot, reads it and {@link #release releases} it.
+ *
+ * Progress is tracked by two sequence counters, the number of slots published and the number
+ * released, which also serve for monitoring. A thread that has to wait does so according to
+ * the {@link WaitStrategy}. Counters are written with volatile stores before the other side's
+ * waiter field is read, and waiters register before checking the counters again, so a parked
+ * thread is always woken and never needs to poll.
+ */
+public class SpscRing<T> {
+    public enum WaitStrategy {
+        /**
+         * Spins on the counters, yielding now and then: lowest latency, burns a core while
+         * waiting.
+         */
+        BUSY_SPIN,
+        /** Spins briefly, then parks until woken by the other side. */
+        PARK
+    }
+
+    private static final int SPIN_TRIES = 100;
+
+    private final T[] mSlots;
+    private final WaitStrategy mWaitStrategy;
+    // Slots published by the producer; written by the producer only.
+    private final AtomicLong mPublished = new AtomicLong();
+    // Slots released by the consumer; written by the consumer only.
+    private final AtomicLong mReleased = new AtomicLong();
+    // Slots taken by the consumer and not yet released, consumer only.
+    private long mTaken;
+    private volatile boolean mClosed;
+    private volatile Thread mWaitingProducer;
+    private volatile Thread mWaitingConsumer;
+
+    public SpscRing(T[] slots, WaitStrategy waitStrategy) {
+        if (slots.length < 1) {
+            throw new IllegalArgumentException("A ring needs at least one slot");
+        }
+        mSlots = slots.clone();
+        mWaitStrategy = waitStrategy;
+    }
+
+    public int getCapacity() {
+        return mSlots.length;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return mWaitStrategy;
+    }
+
+    /**
+     * Producer: returns the next free slot to fill, or null if every slot is in use or the ring
+     * is closed.
+     */
+    public T claim() {
+        if (mClosed || mPublished.get() - mReleased.get() >= mSlots.length) {
+            return null;
+        }
+        return mSlots[(int) (mPublished.get() % mSlots.length)];
+    }
+
+    /**
+     * Producer: waits for a free slot. Returns null once the ring is closed.
+     */
+    public T claimWaiting() throws InterruptedException {
+        int tries = 0;
+        while (true) {
+            final T slot = claim();
+            if (slot != null || mClosed) {
+                return slot;
+            }
+            if (spin(tries++)) {
+                continue;
+            }
+            mWaitingProducer = Thread.currentThread();
+            // Check again, the consumer may have released a slot before seeing us wait.
+            if (mPublished.get() - mReleased.get() >= mSlots.length && !mClosed) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * Producer: publishes the slot last returned by {@link #claim}.
+     */
+    public void publish() {
+        // A full volatile store, so the read of the waiter below cannot be ordered before it.
+        mPublished.set(mPublished.get() + 1);
+        final Thread consumer = mWaitingConsumer;
+        if (consumer != null) {
+            mWaitingConsumer = null;
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Consumer: number of published slots not taken yet.
+     */
+    public int available() {
+        return (int) (mPublished.get() - mReleased.get() - mTaken);
+    }
+
+    /**
+     * Consumer: waits for the oldest published slot not taken yet. Returns null once the ring is
+     * closed, leaving anything still published unread.
+     */
+    public T take() throws InterruptedException {
+        int tries = 0;
+        while (!mClosed) {
+            final T slot = poll();
+            if (slot != null) {
+                return slot;
+            }
+            if (spin(tries++)) {
+                continue;
+            }
+            mWaitingConsumer = Thread.currentThread();
+            // Check again, the producer may have published before seeing us wait.
+            if (available() == 0 && !mClosed) {
+                LockSupport.park(this);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Consumer: the oldest published slot not taken yet, or null if there is none or the ring
+     * is closed. Never waits.
+     */
+    public T poll() {
+        if (mClosed || available() <= 0) {
+            return null;
+        }
+        final long sequence = mReleased.get() + mTaken;
+        ++mTaken;
+        return mSlots[(int) (sequence % mSlots.length)];
+    }
+
+    /**
+     * Consumer: hands the oldest taken slot back to the producer.
+     */
+    public void release() {
+        if (mTaken == 0) {
+            throw new IllegalStateException("No slot is taken");
+        }
+        --mTaken;
+        mReleased.set(mReleased.get() + 1);
+        final Thread producer = mWaitingProducer;
+        if (producer != null) {
+            mWaitingProducer = null;
+            LockSupport.unpark(producer);
+        }
+    }
+
+    /**
+     * Returns true while a waiting thread should keep spinning rather than park.
+     */
+    private boolean spin(int tries) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (tries < SPIN_TRIES) {
+            return true;
+        }
+        if (mWaitStrategy == WaitStrategy.BUSY_SPIN) {
+            // Keep spinning, but let the other side run should both share a core.
+            Thread.yield();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Wakes up both sides and makes every further claim and take return null.
+     */
+    public void close() {
+        mClosed = true;
+        final Thread producer = mWaitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+        final Thread consumer = mWaitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * Total slots published so far.
+     */
+    public long getPublishedSequence() {
+        return mPublished.get();
+    }
+
+    /**
+     * Total slots consumed and released so far.
+     */
+    public long getReleasedSequence() {
+        return mReleased.get();
+    }
+}
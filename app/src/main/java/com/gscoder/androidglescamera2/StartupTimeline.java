@@ -0,0 +1,96 @@
+package com.gscoder.androidglescamera2;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * When the steps of bringing up the camera preview first happened after {@link #start}, to
+ * measure time-to-first-frame. Camera open and GL setup run in parallel, so milestones from
+ * the two do not necessarily arrive in declaration order.
+ *
+ * Times are {@link System#nanoTime} readings. Only the first {@link #mark} of a milestone
+ * counts, so marking from per-frame code costs a single read once it is reached.
+ */
+public class StartupTimeline {
+    public enum Milestone {
+        /** Right after the view resumed, or once the camera permission was granted. */
+        CAMERA_OPEN_REQUESTED,
+        CAMERA_OPENED,
+        /** The GL context exists and the renderer starts setting up. */
+        GL_SURFACE_CREATED,
+        /** Preview texture and shaders are ready. */
+        SURFACE_TEXTURE_READY,
+        /** The capture session is configured and the repeating request submitted. */
+        SESSION_CONFIGURED,
+        FIRST_PREVIEW_FRAME,
+        /** The first camera frame was drawn; time-to-first-frame. */
+        FIRST_PREVIEW_DRAWN,
+        /** The first frame reached the analysis pipeline. */
+        FIRST_FRAME_ACQUIRED,
+        /** The first analyzed frame was handed to the listeners. */
+        FIRST_FRAME_PRESENTED
+    }
+
+    private static final long UNSET = 0;
+
+    private final AtomicLongArray mTimes = new AtomicLongArray(Milestone.values().length);
+    private volatile long mStartTime = System.nanoTime();
+
+    /**
+     * Forgets every milestone and measures from now on.
+     */
+    public void start() {
+        for (int i = 0; i < mTimes.length(); ++i) {
+            mTimes.set(i, UNSET);
+        }
+        mStartTime = System.nanoTime();
+    }
+
+    /**
+     * Records {@code milestone} unless it was already reached. Returns true the first time.
+     */
+    public boolean mark(Milestone milestone) {
+        final int i = milestone.ordinal();
+        if (mTimes.get(i) != UNSET) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (now == UNSET) {
+            ++now;
+        }
+        return mTimes.compareAndSet(i, UNSET, now);
+    }
+
+    public boolean isReached(Milestone milestone) {
+        return mTimes.get(milestone.ordinal()) != UNSET;
+    }
+
+    /**
+     * Nanoseconds from {@link #start} until {@code milestone}, or -1 if it was not reached.
+     */
+    public long getElapsedNs(Milestone milestone) {
+        final long time = mTimes.get(milestone.ordinal());
+        return time != UNSET ? time - mStartTime : -1;
+    }
+
+    public long getElapsedMs(Milestone milestone) {
+        final long elapsed = getElapsedNs(milestone);
+        return elapsed >= 0 ? elapsed / 1000000 : -1;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (Milestone milestone : Milestone.values()) {
+            final long elapsed = getElapsedMs(milestone);
+            if (elapsed < 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(milestone.name().toLowerCase(Locale.US)).append(" +").append(elapsed).append("ms");
+        }
+        return sb.toString();
+    }
+}
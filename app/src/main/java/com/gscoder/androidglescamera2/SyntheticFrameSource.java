@@ -0,0 +1,105 @@
+package com.gscoder.androidglescamera2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Generates a moving test pattern, for running the pipeline without a camera.
+ *
+ * The pattern is rendered once into planes twice the frame height, and each frame is a
+ * window into them scrolled down by two rows, so producing a frame costs no per-pixel work
+ * and the measured throughput is that of the stages behind the source.
+ */
+public class SyntheticFrameSource extends PacedFrameSource {
+    private final int mWidth;
+    private final int mHeight;
+    private final int mUvPixelStride;
+    // Rows after which the pattern repeats, even so chroma rows stay aligned.
+    private final int mPeriod;
+
+    private final ByteBuffer mY;
+    private final ByteBuffer mChroma;
+    private final int mUvRowStride;
+    private final int mUOffset;
+    private final int mVOffset;
+
+    /**
+     * @param uvPixelStride 1 for planar chroma, 2 for interleaved VU chroma as in NV21.
+     */
+    public SyntheticFrameSource(int width, int height, float fps, int uvPixelStride) {
+        super(SyntheticFrameSource.class.getSimpleName(), fps);
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid frame size %dx%d", width, height));
+        }
+        if (uvPixelStride != 1 && uvPixelStride != 2) {
+            throw new IllegalArgumentException("uvPixelStride must be 1 or 2, was " + uvPixelStride);
+        }
+        mWidth = width;
+        mHeight = height;
+        mUvPixelStride = uvPixelStride;
+        mPeriod = (height + 1) & ~1;
+
+        final int chromaWidth = (width + 1) / 2;
+        final int rows = 2 * mPeriod;
+        final int chromaRows = mPeriod;
+        mY = ByteBuffer.allocateDirect(width * rows);
+        for (int y = 0; y < rows; ++y) {
+            final int py = y % mPeriod;
+            for (int x = 0; x < width; ++x) {
+                // Diagonal ramp with a bright bar every 64 rows.
+                final int value = (py & 63) < 4 ? 235 : 16 + ((x + py) * 219 / (width + mPeriod));
+                mY.put(y * width + x, (byte) value);
+            }
+        }
+
+        if (uvPixelStride == 1) {
+            // Two planes back to back, U then V.
+            mUvRowStride = chromaWidth;
+            mUOffset = 0;
+            mVOffset = chromaWidth * chromaRows;
+            mChroma = ByteBuffer.allocateDirect(2 * chromaWidth * chromaRows);
+        } else {
+            // One interleaved VU plane.
+            mUvRowStride = 2 * chromaWidth;
+            mUOffset = 1;
+            mVOffset = 0;
+            mChroma = ByteBuffer.allocateDirect(2 * chromaWidth * chromaRows);
+        }
+        for (int cy = 0; cy < chromaRows; ++cy) {
+            final int py = cy % (mPeriod / 2);
+            for (int cx = 0; cx < chromaWidth; ++cx) {
+                final int u = 128 + (cx * 2 - chromaWidth) * 96 / chromaWidth;
+                final int v = 128 + (py * 4 - mPeriod) * 96 / mPeriod;
+                mChroma.put(mUOffset + cy * mUvRowStride + cx * uvPixelStride, (byte) u);
+                mChroma.put(mVOffset + cy * mUvRowStride + cx * uvPixelStride, (byte) v);
+            }
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    protected boolean produce(long index, long timestamp, YuvFrame frame) {
+        final int shift = (int) ((2 * index) % mPeriod);
+        final int chromaShift = shift / 2;
+        final int chromaLength = ((mHeight + 1) / 2 - 1) * mUvRowStride + ((mWidth + 1) / 2 - 1) * mUvPixelStride + 1;
+
+        frame.set(
+                window(mY, shift * mWidth, mWidth * mHeight),
+                window(mChroma, mUOffset + chromaShift * mUvRowStride, chromaLength),
+                window(mChroma, mVOffset + chromaShift * mUvRowStride, chromaLength),
+                mWidth, mHeight, mWidth, mUvRowStride, mUvPixelStride, timestamp);
+        return true;
+    }
+
+    private static ByteBuffer window(ByteBuffer buffer, int offset, int length) {
+        final ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length).position(offset);
+        return view.slice();
+    }
+}
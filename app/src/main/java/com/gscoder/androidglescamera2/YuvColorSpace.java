@@ -0,0 +1,45 @@
+package com.gscoder.androidglescamera2;
+
+/**
+ * YUV to RGB color matrices, expressed as fixed point coefficients with 10 fractional bits.
+ *
+ * Limited (video) range puts luma in 16..235 and chroma in 16..240, full range uses 0..255
+ * for all three channels.
+ */
+public enum YuvColorSpace {
+    // nR = 1.164 * nY + 1.596 * nV
+    // nG = 1.164 * nY - 0.813 * nV - 0.391 * nU
+    // nB = 1.164 * nY + 2.018 * nU
+    BT601_LIMITED(16, 1192, 1634, 400, 833, 2066),
+
+    // nR = nY + 1.402 * nV
+    // nG = nY - 0.714 * nV - 0.344 * nU
+    // nB = nY + 1.772 * nU
+    BT601_FULL(0, 1024, 1436, 352, 731, 1815),
+
+    // nR = 1.164 * nY + 1.793 * nV
+    // nG = 1.164 * nY - 0.533 * nV - 0.213 * nU
+    // nB = 1.164 * nY + 2.112 * nU
+    BT709_LIMITED(16, 1192, 1836, 218, 546, 2163),
+
+    // nR = nY + 1.575 * nV
+    // nG = nY - 0.468 * nV - 0.187 * nU
+    // nB = nY + 1.856 * nU
+    BT709_FULL(0, 1024, 1613, 192, 479, 1900);
+
+    final int yOffset;
+    final int yCoeff;
+    final int vToR;
+    final int uToG;
+    final int vToG;
+    final int uToB;
+
+    YuvColorSpace(int yOffset, int yCoeff, int vToR, int uToG, int vToG, int uToB) {
+        this.yOffset = yOffset;
+        this.yCoeff = yCoeff;
+        this.vToR = vToR;
+        this.uToG = uToG;
+        this.vToG = vToG;
+        this.uToB = uToB;
+    }
+}
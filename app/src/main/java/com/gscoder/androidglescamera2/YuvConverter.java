@@ -0,0 +1,437 @@
+package com.gscoder.androidglescamera2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The YUV_420_888 conversion loops behind {@link ImageUtils}.
+ *
+ * This class only depends on the JDK, so the hot paths can be compiled and benchmarked on a
+ * plain JVM without a device, see the {@code benchmark} module.
+ */
+public final class YuvConverter {
+    private YuvConverter() {
+    }
+
+    /**
+     * Utility method to compute the allocated size in bytes of a YUV420SP image
+     * of the given dimensions.
+     */
+    public static int getYUVByteSize(final int width, final int height) {
+        // The luminance plane requires 1 byte per pixel.
+        final int ySize = width * height;
+
+        // The UV plane works on 2x2 blocks, so dimensions with odd size must be rounded up.
+        // Each 2x2 block takes 2 bytes to encode, one each for U and V.
+        final int uvSize = ((width + 1) / 2) * ((height + 1) / 2) * 2;
+
+        return ySize + uvSize;
+    }
+
+    /**
+     * Copies the whole of {@code buffer} into {@code bytes}, reallocating it when the buffer
+     * capacity changed, and returns the array holding the copy.
+     */
+    public static byte[] fillBytes(final ByteBuffer buffer, byte[] bytes) {
+        // Because of the variable row stride it's not possible to know in
+        // advance the actual necessary dimensions of the yuv planes.
+        if (bytes == null || bytes.length != buffer.capacity()) {
+            bytes = new byte[buffer.capacity()];
+        }
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    public static void convertYUV420ToARGB8888(byte[] yData, byte[] uData, byte[] vData, int width, int height,
+                                               int yRowStride, int uvRowStride, int uvPixelStride, int[] out,
+                                               YuvToRgbKernel kernel) {
+        convertYUV420ToARGB8888(yData, uData, vData, width, yRowStride, uvRowStride, uvPixelStride, out,
+                kernel, 0, height);
+    }
+
+    /**
+     * Converts only the rows [rowStart, rowEnd) of the frame. Output pixels are written at the
+     * same positions a whole-frame conversion would write them, so disjoint row bands can be
+     * converted concurrently into the same output array.
+     */
+    static void convertYUV420ToARGB8888(byte[] yData, byte[] uData, byte[] vData, int width,
+                                        int yRowStride, int uvRowStride, int uvPixelStride, int[] out,
+                                        YuvToRgbKernel kernel, int rowStart, int rowEnd) {
+        if (uvPixelStride == 1) {
+            convertPlanar(yData, uData, vData, width, yRowStride, uvRowStride, out, kernel, rowStart, rowEnd);
+            return;
+        }
+        if (uvPixelStride == 2) {
+            convertSemiPlanar(yData, uData, vData, width, yRowStride, uvRowStride, out, kernel, rowStart, rowEnd);
+            return;
+        }
+
+        int i = rowStart * width;
+        for (int y = rowStart; y < rowEnd; y++) {
+            int pY = yRowStride * y;
+            int uv_row_start = uvRowStride * (y >> 1);
+            int pU = uv_row_start;
+            int pV = uv_row_start;
+
+            for (int x = 0; x < width; x++) {
+                int uv_offset = (x >> 1) * uvPixelStride;
+                out[i++] = kernel.yuvToArgb(
+                        convertByteToInt(yData, pY + x),
+                        convertByteToInt(uData, pU + uv_offset),
+                        convertByteToInt(vData, pV + uv_offset));
+            }
+        }
+    }
+
+    /**
+     * Planar chroma, pixel stride 1: each chroma sample is fetched once for the two pixels of
+     * a row that share it.
+     */
+    private static void convertPlanar(byte[] yData, byte[] uData, byte[] vData, int width,
+                                      int yRowStride, int uvRowStride, int[] out,
+                                      YuvToRgbKernel kernel, int rowStart, int rowEnd) {
+        final int pairedWidth = width & ~1;
+        int i = rowStart * width;
+        for (int y = rowStart; y < rowEnd; y++) {
+            int pY = yRowStride * y;
+            int pUV = uvRowStride * (y >> 1);
+            final int rowEndY = pY + pairedWidth;
+
+            for (; pY < rowEndY; pY += 2, pUV++) {
+                final int u = uData[pUV] & 0xFF;
+                final int v = vData[pUV] & 0xFF;
+                out[i++] = kernel.yuvToArgb(yData[pY] & 0xFF, u, v);
+                out[i++] = kernel.yuvToArgb(yData[pY + 1] & 0xFF, u, v);
+            }
+            if (pairedWidth != width) {
+                out[i++] = kernel.yuvToArgb(yData[pY] & 0xFF, uData[pUV] & 0xFF, vData[pUV] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Semi-planar chroma, pixel stride 2 (NV12 / NV21 views): walks the interleaved chroma row
+     * two bytes per pixel pair, fetching each U and V sample once for both pixels.
+     */
+    private static void convertSemiPlanar(byte[] yData, byte[] uData, byte[] vData, int width,
+                                          int yRowStride, int uvRowStride, int[] out,
+                                          YuvToRgbKernel kernel, int rowStart, int rowEnd) {
+        final int pairedWidth = width & ~1;
+        int i = rowStart * width;
+        for (int y = rowStart; y < rowEnd; y++) {
+            int pY = yRowStride * y;
+            int pUV = uvRowStride * (y >> 1);
+            final int rowEndY = pY + pairedWidth;
+
+            for (; pY < rowEndY; pY += 2, pUV += 2) {
+                final int u = uData[pUV] & 0xFF;
+                final int v = vData[pUV] & 0xFF;
+                out[i++] = kernel.yuvToArgb(yData[pY] & 0xFF, u, v);
+                out[i++] = kernel.yuvToArgb(yData[pY + 1] & 0xFF, u, v);
+            }
+            if (pairedWidth != width) {
+                out[i++] = kernel.yuvToArgb(yData[pY] & 0xFF, uData[pUV] & 0xFF, vData[pUV] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Converts an NV21 buffer, a full luma plane followed by one interleaved VU plane, walking
+     * the chroma plane once rather than through separate U and V views of it.
+     */
+    public static void convertNV21ToARGB8888(byte[] data, int width, int height, int[] out, YuvToRgbKernel kernel) {
+        convertInterleaved(data, width, height, out, kernel, 1, 0);
+    }
+
+    /**
+     * Converts an NV12 buffer, a full luma plane followed by one interleaved UV plane.
+     */
+    public static void convertNV12ToARGB8888(byte[] data, int width, int height, int[] out, YuvToRgbKernel kernel) {
+        convertInterleaved(data, width, height, out, kernel, 0, 1);
+    }
+
+    private static void convertInterleaved(byte[] data, int width, int height, int[] out, YuvToRgbKernel kernel,
+                                           int uOffset, int vOffset) {
+        final int uvStart = width * height;
+        final int uvRowStride = ((width + 1) / 2) * 2;
+        final int pairedWidth = width & ~1;
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            int pY = width * y;
+            int pUV = uvStart + uvRowStride * (y >> 1);
+            final int rowEndY = pY + pairedWidth;
+
+            for (; pY < rowEndY; pY += 2, pUV += 2) {
+                final int u = data[pUV + uOffset] & 0xFF;
+                final int v = data[pUV + vOffset] & 0xFF;
+                out[i++] = kernel.yuvToArgb(data[pY] & 0xFF, u, v);
+                out[i++] = kernel.yuvToArgb(data[pY + 1] & 0xFF, u, v);
+            }
+            if (pairedWidth != width) {
+                out[i++] = kernel.yuvToArgb(data[pY] & 0xFF, data[pUV + uOffset] & 0xFF, data[pUV + vOffset] & 0xFF);
+            }
+        }
+    }
+
+    public static void convertYUV420ToARGB8888(YuvFrame frame, int[] out, YuvToRgbKernel kernel) {
+        convertYUV420ToARGB8888(frame, out, kernel, 0, frame.getHeight());
+    }
+
+    /**
+     * Same as the byte array variant, but reads the plane buffers with absolute gets. Buffer
+     * positions are left untouched, so disjoint row bands of one frame can be converted
+     * concurrently.
+     */
+    static void convertYUV420ToARGB8888(YuvFrame frame, int[] out, YuvToRgbKernel kernel,
+                                        int rowStart, int rowEnd) {
+        final ByteBuffer yData = frame.getY();
+        final ByteBuffer uData = frame.getU();
+        final ByteBuffer vData = frame.getV();
+        final int width = frame.getWidth();
+        final int yRowStride = frame.getYRowStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+
+        if (uvPixelStride == 1 || uvPixelStride == 2) {
+            convertPaired(yData, uData, vData, width, yRowStride, uvRowStride, uvPixelStride, out, kernel,
+                    rowStart, rowEnd);
+            return;
+        }
+
+        int i = rowStart * width;
+        for (int y = rowStart; y < rowEnd; y++) {
+            int pY = yRowStride * y;
+            int pUV = uvRowStride * (y >> 1);
+
+            for (int x = 0; x < width; x++) {
+                int uv_offset = pUV + (x >> 1) * uvPixelStride;
+                out[i++] = kernel.yuvToArgb(
+                        yData.get(pY + x) & 0xFF,
+                        uData.get(uv_offset) & 0xFF,
+                        vData.get(uv_offset) & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Planar or semi-planar chroma read from buffers: each U and V sample is fetched once for
+     * the two pixels of a row that share it.
+     */
+    private static void convertPaired(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData, int width,
+                                      int yRowStride, int uvRowStride, int uvPixelStride, int[] out,
+                                      YuvToRgbKernel kernel, int rowStart, int rowEnd) {
+        final int pairedWidth = width & ~1;
+        int i = rowStart * width;
+        for (int y = rowStart; y < rowEnd; y++) {
+            int pY = yRowStride * y;
+            int pUV = uvRowStride * (y >> 1);
+            final int rowEndY = pY + pairedWidth;
+
+            for (; pY < rowEndY; pY += 2, pUV += uvPixelStride) {
+                final int u = uData.get(pUV) & 0xFF;
+                final int v = vData.get(pUV) & 0xFF;
+                out[i++] = kernel.yuvToArgb(yData.get(pY) & 0xFF, u, v);
+                out[i++] = kernel.yuvToArgb(yData.get(pY + 1) & 0xFF, u, v);
+            }
+            if (pairedWidth != width) {
+                out[i++] = kernel.yuvToArgb(yData.get(pY) & 0xFF, uData.get(pUV) & 0xFF, vData.get(pUV) & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Converts {@code frame} like {@link #convertYUV420ToARGB8888(YuvFrame, int[], YuvToRgbKernel)}
+     * and fills {@code stats} in the same pass over the pixels.
+     */
+    public static void convertYUV420ToARGB8888(YuvFrame frame, int[] out, YuvToRgbKernel kernel, FrameStats stats) {
+        stats.reset();
+        convertYUV420ToARGB8888(frame, out, kernel, stats, 0, frame.getHeight());
+    }
+
+    /**
+     * Converts rows {@code [rowStart, rowEnd)} and adds them to {@code stats}, without resetting it.
+     * {@code rowStart} must be even.
+     */
+    static void convertYUV420ToARGB8888(YuvFrame frame, int[] out, YuvToRgbKernel kernel, FrameStats stats,
+                                        int rowStart, int rowEnd) {
+        final ByteBuffer yData = frame.getY();
+        final ByteBuffer uData = frame.getU();
+        final ByteBuffer vData = frame.getV();
+        final int width = frame.getWidth();
+        final int yRowStride = frame.getYRowStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+        final int[] histogram = stats.histogram();
+        final int pairedWidth = width & ~1;
+
+        long sumR = 0;
+        long sumG = 0;
+        long sumB = 0;
+        int i = rowStart * width;
+        for (int y = rowStart; y < rowEnd; y++) {
+            int pY = yRowStride * y;
+            int pUV = uvRowStride * (y >> 1);
+            final int rowEndY = pY + pairedWidth;
+
+            for (; pY < rowEndY; pY += 2, pUV += uvPixelStride) {
+                final int u = uData.get(pUV) & 0xFF;
+                final int v = vData.get(pUV) & 0xFF;
+                final int y0 = yData.get(pY) & 0xFF;
+                final int y1 = yData.get(pY + 1) & 0xFF;
+                final int argb0 = kernel.yuvToArgb(y0, u, v);
+                final int argb1 = kernel.yuvToArgb(y1, u, v);
+                out[i++] = argb0;
+                out[i++] = argb1;
+                histogram[y0]++;
+                histogram[y1]++;
+                sumR += ((argb0 >> 16) & 0xFF) + ((argb1 >> 16) & 0xFF);
+                sumG += ((argb0 >> 8) & 0xFF) + ((argb1 >> 8) & 0xFF);
+                sumB += (argb0 & 0xFF) + (argb1 & 0xFF);
+            }
+            if (pairedWidth != width) {
+                final int y0 = yData.get(pY) & 0xFF;
+                final int argb0 = kernel.yuvToArgb(y0, uData.get(pUV) & 0xFF, vData.get(pUV) & 0xFF);
+                out[i++] = argb0;
+                histogram[y0]++;
+                sumR += (argb0 >> 16) & 0xFF;
+                sumG += (argb0 >> 8) & 0xFF;
+                sumB += argb0 & 0xFF;
+            }
+        }
+        stats.add(sumR, sumG, sumB, (rowEnd - rowStart) * width);
+    }
+
+    /**
+     * Converts the {@code width x height} rectangle of {@code frame} at ({@code left},
+     * {@code top}) into {@code out}, packed as {@code width * height} pixels. Pixels take the
+     * chroma sample of their own frame coordinates, so odd offsets give the same colors as the
+     * matching pixels of a full frame conversion.
+     */
+    public static void convertRegion(YuvFrame frame, int left, int top, int width, int height,
+                                     int[] out, YuvToRgbKernel kernel) {
+        checkRegion(frame, left, top, width, height);
+
+        final ByteBuffer yData = frame.getY();
+        final ByteBuffer uData = frame.getU();
+        final ByteBuffer vData = frame.getV();
+        final int yRowStride = frame.getYRowStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+        final int right = left + width;
+
+        int i = 0;
+        for (int y = top; y < top + height; y++) {
+            final int rowY = yRowStride * y;
+            final int rowUV = uvRowStride * (y >> 1);
+            int x = left;
+
+            if ((x & 1) != 0) {
+                // Odd left edge: the first pixel is the second half of a chroma pair.
+                final int pUV = rowUV + (x >> 1) * uvPixelStride;
+                out[i++] = kernel.yuvToArgb(yData.get(rowY + x) & 0xFF, uData.get(pUV) & 0xFF, vData.get(pUV) & 0xFF);
+                x++;
+            }
+            for (; x + 1 < right; x += 2) {
+                final int pUV = rowUV + (x >> 1) * uvPixelStride;
+                final int u = uData.get(pUV) & 0xFF;
+                final int v = vData.get(pUV) & 0xFF;
+                out[i++] = kernel.yuvToArgb(yData.get(rowY + x) & 0xFF, u, v);
+                out[i++] = kernel.yuvToArgb(yData.get(rowY + x + 1) & 0xFF, u, v);
+            }
+            if (x < right) {
+                final int pUV = rowUV + (x >> 1) * uvPixelStride;
+                out[i++] = kernel.yuvToArgb(yData.get(rowY + x) & 0xFF, uData.get(pUV) & 0xFF, vData.get(pUV) & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Copies the luma samples of the {@code width x height} rectangle of {@code frame} at
+     * ({@code left}, {@code top}) into {@code out}, packed as {@code width * height} bytes.
+     * The plane buffer is read through a duplicate and left as it was.
+     */
+    public static void extractLumaRegion(YuvFrame frame, int left, int top, int width, int height, byte[] out) {
+        checkRegion(frame, left, top, width, height);
+
+        final ByteBuffer yData = frame.getY().duplicate();
+        final int yRowStride = frame.getYRowStride();
+
+        for (int y = 0; y < height; y++) {
+            yData.position((top + y) * yRowStride + left);
+            yData.get(out, y * width, width);
+        }
+    }
+
+    private static void checkRegion(YuvFrame frame, int left, int top, int width, int height) {
+        if (left < 0 || top < 0 || width <= 0 || height <= 0
+                || left + width > frame.getWidth() || top + height > frame.getHeight()) {
+            throw new IllegalArgumentException(String.format("Region %dx%d at (%d, %d) is outside the %dx%d frame",
+                    width, height, left, top, frame.getWidth(), frame.getHeight()));
+        }
+    }
+
+    /**
+     * Copies the luma plane of {@code frame} into {@code out} as packed {@code width * height}
+     * bytes, dropping the row padding. The chroma planes are not read, and the plane buffer is
+     * read through a duplicate, so other threads may read the same frame meanwhile.
+     */
+    public static void extractLuma(YuvFrame frame, byte[] out) {
+        final ByteBuffer yData = frame.getY().duplicate();
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final int yRowStride = frame.getYRowStride();
+
+        if (yRowStride == width) {
+            yData.position(0);
+            yData.get(out, 0, width * height);
+        } else {
+            for (int y = 0; y < height; y++) {
+                yData.position(y * yRowStride);
+                yData.get(out, y * width, width);
+            }
+        }
+    }
+
+    /**
+     * Copies the luma plane of {@code frame} into {@code out}, starting at its current position,
+     * as packed {@code width * height} bytes. The position of {@code out} is advanced past the
+     * written bytes; that of the plane buffer is left alone.
+     */
+    public static void extractLuma(YuvFrame frame, ByteBuffer out) {
+        final ByteBuffer yData = frame.getY().duplicate();
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final int yRowStride = frame.getYRowStride();
+
+        if (yRowStride == width) {
+            yData.limit(width * height).position(0);
+            out.put(yData);
+        } else {
+            for (int y = 0; y < height; y++) {
+                yData.limit(y * yRowStride + width).position(y * yRowStride);
+                out.put(yData);
+            }
+        }
+    }
+
+    /**
+     * Bulk copies {@code rows} rows of {@code rowBytes} from {@code src} to the position of
+     * {@code out}, dropping the row padding. {@code src} is read through a duplicate, its
+     * position and limit are never touched.
+     */
+    static void copyRows(ByteBuffer src, int rowStride, int rowBytes, int rows, ByteBuffer out) {
+        final ByteBuffer in = src.duplicate();
+        if (rowStride == rowBytes) {
+            in.limit(rowBytes * rows).position(0);
+            out.put(in);
+        } else {
+            for (int y = 0; y < rows; ++y) {
+                in.limit(y * rowStride + rowBytes).position(y * rowStride);
+                out.put(in);
+            }
+        }
+    }
+
+    private static int convertByteToInt(byte[] arr, int pos) {
+        return arr[pos] & 0xFF;
+    }
+}
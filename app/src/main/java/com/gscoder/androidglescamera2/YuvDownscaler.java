@@ -0,0 +1,286 @@
+package com.gscoder.androidglescamera2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Box-filter downscaling of YUV_420_888 frames, done on the Y and UV planes before any RGB
+ * conversion so that conversion only runs on the reduced pixel count.
+ *
+ * Each destination pixel averages the block of source luma samples it covers, and the chroma
+ * samples covering the same block. For an exact 2x reduction that is one 2x2 luma block and
+ * the single chroma sample it shares. Integer factors of 2, 4 and 8 average with shifts,
+ * arbitrary ratios fall back to area averaging over integer block bounds.
+ *
+ * An instance owns its output buffers and is not safe for concurrent use.
+ */
+public class YuvDownscaler {
+    private final int mSrcWidth;
+    private final int mSrcHeight;
+    private final int mDstWidth;
+    private final int mDstHeight;
+
+    // Source luma block bounds of destination column / row i: [start[i], start[i + 1]).
+    private final int[] mColStart;
+    private final int[] mRowStart;
+    // Source chroma block bounds of destination column / row i, for fused conversion.
+    private final int[] mUvColStart;
+    private final int[] mUvColEnd;
+    private final int[] mUvRowStart;
+    private final int[] mUvRowEnd;
+    // Source chroma block bounds of destination chroma column / row i, for downscale().
+    private final int[] mDstUvColStart;
+    private final int[] mDstUvColEnd;
+    private final int[] mDstUvRowStart;
+    private final int[] mDstUvRowEnd;
+
+    // log2 of the luma block area when every block has the same power of two size, else -1.
+    private final int mLumaShift;
+    // Exact 2x reduction in both dimensions, which has a dedicated loop.
+    private final boolean mHalf;
+
+    private final byte[] mY;
+    private final byte[] mU;
+    private final byte[] mV;
+    private final YuvFrame mOutput = new YuvFrame();
+
+    /**
+     * Creates a downscaler reducing both dimensions by {@code factor}, rounding down.
+     */
+    public static YuvDownscaler byFactor(int srcWidth, int srcHeight, int factor) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("factor must be at least 1, was " + factor);
+        }
+        return new YuvDownscaler(srcWidth, srcHeight, Math.max(1, srcWidth / factor), Math.max(1, srcHeight / factor));
+    }
+
+    public YuvDownscaler(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        if (dstWidth <= 0 || dstHeight <= 0 || dstWidth > srcWidth || dstHeight > srcHeight) {
+            throw new IllegalArgumentException(String.format("Cannot downscale %dx%d to %dx%d",
+                    srcWidth, srcHeight, dstWidth, dstHeight));
+        }
+        mSrcWidth = srcWidth;
+        mSrcHeight = srcHeight;
+        mDstWidth = dstWidth;
+        mDstHeight = dstHeight;
+
+        mColStart = blockStarts(srcWidth, dstWidth);
+        mRowStart = blockStarts(srcHeight, dstHeight);
+
+        mUvColStart = new int[dstWidth];
+        mUvColEnd = new int[dstWidth];
+        chromaBounds(mColStart, 1, dstWidth, mUvColStart, mUvColEnd);
+        mUvRowStart = new int[dstHeight];
+        mUvRowEnd = new int[dstHeight];
+        chromaBounds(mRowStart, 1, dstHeight, mUvRowStart, mUvRowEnd);
+
+        final int dstUvWidth = (dstWidth + 1) / 2;
+        final int dstUvHeight = (dstHeight + 1) / 2;
+        mDstUvColStart = new int[dstUvWidth];
+        mDstUvColEnd = new int[dstUvWidth];
+        chromaBounds(mColStart, 2, dstWidth, mDstUvColStart, mDstUvColEnd);
+        mDstUvRowStart = new int[dstUvHeight];
+        mDstUvRowEnd = new int[dstUvHeight];
+        chromaBounds(mRowStart, 2, dstHeight, mDstUvRowStart, mDstUvRowEnd);
+
+        final int factorX = srcWidth / dstWidth;
+        final int factorY = srcHeight / dstHeight;
+        final boolean uniform = srcWidth == factorX * dstWidth && srcHeight == factorY * dstHeight;
+        final int area = factorX * factorY;
+        mLumaShift = uniform && Integer.bitCount(area) == 1 ? Integer.numberOfTrailingZeros(area) : -1;
+        mHalf = uniform && factorX == 2 && factorY == 2;
+
+        mY = new byte[dstWidth * dstHeight];
+        mU = new byte[dstUvWidth * dstUvHeight];
+        mV = new byte[dstUvWidth * dstUvHeight];
+    }
+
+    private static int[] blockStarts(int src, int dst) {
+        final int[] starts = new int[dst + 1];
+        for (int i = 0; i <= dst; ++i) {
+            starts[i] = (int) ((long) i * src / dst);
+        }
+        return starts;
+    }
+
+    /**
+     * Chroma sample range covering the luma blocks of {@code span} consecutive destination
+     * samples starting at {@code i * span}.
+     */
+    private static void chromaBounds(int[] lumaStarts, int span, int dst, int[] start, int[] end) {
+        for (int i = 0; i < start.length; ++i) {
+            final int first = i * span;
+            final int last = Math.min(dst, first + span);
+            start[i] = lumaStarts[first] >> 1;
+            end[i] = ((lumaStarts[last] - 1) >> 1) + 1;
+        }
+    }
+
+    public int getDstWidth() {
+        return mDstWidth;
+    }
+
+    public int getDstHeight() {
+        return mDstHeight;
+    }
+
+    private void checkSource(YuvFrame src) {
+        if (src.getWidth() != mSrcWidth || src.getHeight() != mSrcHeight) {
+            throw new IllegalArgumentException(String.format("Expected a %dx%d frame, got %dx%d",
+                    mSrcWidth, mSrcHeight, src.getWidth(), src.getHeight()));
+        }
+    }
+
+    /**
+     * Downscales {@code src} into planar 4:2:0 buffers owned by this instance. The returned
+     * frame is overwritten by the next call.
+     */
+    public YuvFrame downscale(YuvFrame src) {
+        checkSource(src);
+        downscaleLuma(src, mY);
+
+        final ByteBuffer uData = src.getU();
+        final ByteBuffer vData = src.getV();
+        final int uvRowStride = src.getUvRowStride();
+        final int uvPixelStride = src.getUvPixelStride();
+
+        int i = 0;
+        for (int dy = 0; dy < mDstUvRowStart.length; ++dy) {
+            final int y0 = mDstUvRowStart[dy];
+            final int y1 = mDstUvRowEnd[dy];
+            for (int dx = 0; dx < mDstUvColStart.length; ++dx) {
+                final int x0 = mDstUvColStart[dx];
+                final int x1 = mDstUvColEnd[dx];
+                final int count = (x1 - x0) * (y1 - y0);
+                int sumU = 0;
+                int sumV = 0;
+                for (int y = y0; y < y1; ++y) {
+                    int p = y * uvRowStride + x0 * uvPixelStride;
+                    for (int x = x0; x < x1; ++x, p += uvPixelStride) {
+                        sumU += uData.get(p) & 0xFF;
+                        sumV += vData.get(p) & 0xFF;
+                    }
+                }
+                mU[i] = (byte) ((sumU + (count >> 1)) / count);
+                mV[i] = (byte) ((sumV + (count >> 1)) / count);
+                ++i;
+            }
+        }
+
+        final int uvWidth = mDstUvColStart.length;
+        return mOutput.set(mY, mU, mV, mDstWidth, mDstHeight, mDstWidth, uvWidth, 1, src.getTimestamp());
+    }
+
+    /**
+     * Downscales only the luma plane of {@code src} into {@code out}, packed as
+     * {@code dstWidth * dstHeight} bytes.
+     */
+    public void downscaleLuma(YuvFrame src, byte[] out) {
+        checkSource(src);
+        final ByteBuffer yData = src.getY();
+        final int yRowStride = src.getYRowStride();
+
+        int i = 0;
+        for (int dy = 0; dy < mDstHeight; ++dy) {
+            final int y0 = mRowStart[dy];
+            final int y1 = mRowStart[dy + 1];
+            for (int dx = 0; dx < mDstWidth; ++dx) {
+                out[i++] = (byte) averageLuma(yData, yRowStride, mColStart[dx], mColStart[dx + 1], y0, y1);
+            }
+        }
+    }
+
+    /**
+     * Downscales {@code src} and converts the result to ARGB_8888 in the same pass.
+     * {@code out} receives {@code dstWidth * dstHeight} pixels.
+     */
+    public void convert(YuvFrame src, int[] out, YuvToRgbKernel kernel) {
+        checkSource(src);
+        if (mHalf) {
+            convertHalf(src, out, kernel);
+            return;
+        }
+        final ByteBuffer yData = src.getY();
+        final ByteBuffer uData = src.getU();
+        final ByteBuffer vData = src.getV();
+        final int yRowStride = src.getYRowStride();
+        final int uvRowStride = src.getUvRowStride();
+        final int uvPixelStride = src.getUvPixelStride();
+
+        int i = 0;
+        for (int dy = 0; dy < mDstHeight; ++dy) {
+            final int y0 = mRowStart[dy];
+            final int y1 = mRowStart[dy + 1];
+            final int uvY0 = mUvRowStart[dy];
+            final int uvY1 = mUvRowEnd[dy];
+            for (int dx = 0; dx < mDstWidth; ++dx) {
+                final int luma = averageLuma(yData, yRowStride, mColStart[dx], mColStart[dx + 1], y0, y1);
+
+                final int uvX0 = mUvColStart[dx];
+                final int uvX1 = mUvColEnd[dx];
+                final int u;
+                final int v;
+                if (uvX1 - uvX0 == 1 && uvY1 - uvY0 == 1) {
+                    // Exact 2x: the block shares a single chroma sample.
+                    final int p = uvY0 * uvRowStride + uvX0 * uvPixelStride;
+                    u = uData.get(p) & 0xFF;
+                    v = vData.get(p) & 0xFF;
+                } else {
+                    final int count = (uvX1 - uvX0) * (uvY1 - uvY0);
+                    int sumU = 0;
+                    int sumV = 0;
+                    for (int y = uvY0; y < uvY1; ++y) {
+                        int p = y * uvRowStride + uvX0 * uvPixelStride;
+                        for (int x = uvX0; x < uvX1; ++x, p += uvPixelStride) {
+                            sumU += uData.get(p) & 0xFF;
+                            sumV += vData.get(p) & 0xFF;
+                        }
+                    }
+                    u = (sumU + (count >> 1)) / count;
+                    v = (sumV + (count >> 1)) / count;
+                }
+
+                out[i++] = kernel.yuvToArgb(luma, u, v);
+            }
+        }
+    }
+
+    /**
+     * Exact 2x reduction: every output pixel averages one 2x2 luma block and takes the chroma
+     * sample the block shares, without the general block loops.
+     */
+    private void convertHalf(YuvFrame src, int[] out, YuvToRgbKernel kernel) {
+        final ByteBuffer yData = src.getY();
+        final ByteBuffer uData = src.getU();
+        final ByteBuffer vData = src.getV();
+        final int yRowStride = src.getYRowStride();
+        final int uvRowStride = src.getUvRowStride();
+        final int uvPixelStride = src.getUvPixelStride();
+
+        int i = 0;
+        for (int dy = 0; dy < mDstHeight; ++dy) {
+            final int row0 = 2 * dy * yRowStride;
+            final int row1 = row0 + yRowStride;
+            int pUV = dy * uvRowStride;
+            for (int x = 0; x < 2 * mDstWidth; x += 2, pUV += uvPixelStride) {
+                final int sum = (yData.get(row0 + x) & 0xFF) + (yData.get(row0 + x + 1) & 0xFF)
+                        + (yData.get(row1 + x) & 0xFF) + (yData.get(row1 + x + 1) & 0xFF);
+                out[i++] = kernel.yuvToArgb((sum + 2) >> 2, uData.get(pUV) & 0xFF, vData.get(pUV) & 0xFF);
+            }
+        }
+    }
+
+    private int averageLuma(ByteBuffer yData, int yRowStride, int x0, int x1, int y0, int y1) {
+        int sum = 0;
+        for (int y = y0; y < y1; ++y) {
+            final int row = y * yRowStride;
+            for (int x = x0; x < x1; ++x) {
+                sum += yData.get(row + x) & 0xFF;
+            }
+        }
+        if (mLumaShift >= 0) {
+            return mLumaShift == 0 ? sum : (sum + (1 << (mLumaShift - 1))) >> mLumaShift;
+        }
+        final int count = (x1 - x0) * (y1 - y0);
+        return (sum + (count >> 1)) / count;
+    }
+}
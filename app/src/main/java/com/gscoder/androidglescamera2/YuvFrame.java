@@ -0,0 +1,93 @@
+package com.gscoder.androidglescamera2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A YUV_420_888 frame described by its three plane buffers and their strides.
+ *
+ * The buffers are referenced, not copied, so a frame wrapping the planes of an
+ * {@link android.media.Image} is only valid until that image is closed. Instances are meant
+ * to be reused from frame to frame with {@link #set}.
+ */
+public class YuvFrame {
+    private ByteBuffer mY;
+    private ByteBuffer mU;
+    private ByteBuffer mV;
+    private int mWidth;
+    private int mHeight;
+    private int mYRowStride;
+    private int mUvRowStride;
+    private int mUvPixelStride;
+    private long mTimestamp;
+
+    public YuvFrame set(ByteBuffer y, ByteBuffer u, ByteBuffer v, int width, int height,
+                        int yRowStride, int uvRowStride, int uvPixelStride, long timestamp) {
+        mY = y;
+        mU = u;
+        mV = v;
+        mWidth = width;
+        mHeight = height;
+        mYRowStride = yRowStride;
+        mUvRowStride = uvRowStride;
+        mUvPixelStride = uvPixelStride;
+        mTimestamp = timestamp;
+        return this;
+    }
+
+    /**
+     * Wraps heap arrays, for example planes previously copied out of an image.
+     */
+    public YuvFrame set(byte[] y, byte[] u, byte[] v, int width, int height,
+                        int yRowStride, int uvRowStride, int uvPixelStride, long timestamp) {
+        return set(ByteBuffer.wrap(y), ByteBuffer.wrap(u), ByteBuffer.wrap(v), width, height,
+                yRowStride, uvRowStride, uvPixelStride, timestamp);
+    }
+
+    /**
+     * Drops the plane references so the underlying buffers can be released.
+     */
+    public void clear() {
+        mY = null;
+        mU = null;
+        mV = null;
+    }
+
+    public ByteBuffer getY() {
+        return mY;
+    }
+
+    public ByteBuffer getU() {
+        return mU;
+    }
+
+    public ByteBuffer getV() {
+        return mV;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getYRowStride() {
+        return mYRowStride;
+    }
+
+    public int getUvRowStride() {
+        return mUvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return mUvPixelStride;
+    }
+
+    /**
+     * Sensor timestamp in nanoseconds, as reported by {@link android.media.Image#getTimestamp()}.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+}
@@ -0,0 +1,58 @@
+package com.gscoder.androidglescamera2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Owned storage for a copy of a YUV_420_888 frame, so it can outlive the camera image or
+ * source buffer it came from.
+ *
+ * Planes are copied row by row with bulk puts, dropping row padding but keeping the chroma
+ * pixel stride. The storage grows to the largest frame copied and is reused afterwards.
+ */
+public class YuvFrameBuffer {
+    private ByteBuffer mY;
+    private ByteBuffer mU;
+    private ByteBuffer mV;
+    private final YuvFrame mFrame = new YuvFrame();
+    // Pipeline timing points of the frame, see FrameMetrics.
+    final long[] marks = new long[FrameMetrics.MARK_COUNT];
+
+    /**
+     * Copies {@code src} and returns the copy, valid until the next call.
+     */
+    public YuvFrame copyFrom(YuvFrame src) {
+        final int width = src.getWidth();
+        final int height = src.getHeight();
+        final int uvPixelStride = src.getUvPixelStride();
+        final int chromaHeight = (height + 1) / 2;
+        final int uvRowBytes = ((width + 1) / 2 - 1) * uvPixelStride + 1;
+
+        mY = ensureCapacity(mY, width * height);
+        mU = ensureCapacity(mU, uvRowBytes * chromaHeight);
+        mV = ensureCapacity(mV, uvRowBytes * chromaHeight);
+
+        YuvConverter.copyRows(src.getY(), src.getYRowStride(), width, height, mY);
+        YuvConverter.copyRows(src.getU(), src.getUvRowStride(), uvRowBytes, chromaHeight, mU);
+        YuvConverter.copyRows(src.getV(), src.getUvRowStride(), uvRowBytes, chromaHeight, mV);
+        mY.flip();
+        mU.flip();
+        mV.flip();
+
+        return mFrame.set(mY, mU, mV, width, height, width, uvRowBytes, uvPixelStride, src.getTimestamp());
+    }
+
+    /**
+     * The last copy made.
+     */
+    public YuvFrame getFrame() {
+        return mFrame;
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        if (buffer == null || buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        buffer.clear();
+        return buffer;
+    }
+}
@@ -0,0 +1,184 @@
+package com.gscoder.androidglescamera2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records raw YUV_420_888 frames into a preallocated, memory-mapped ring file, so that minutes
+ * of camera output can be captured from the frame thread at the cost of a few row copies.
+ *
+ * The file holds a fixed number of equally sized slots; once all are used the oldest frame is
+ * overwritten. Planes are stored with their row padding removed but their pixel stride kept, so
+ * every plane is copied row by row with bulk puts and nothing is touched per pixel.
+ *
+ * File layout, all values big-endian:
+ * <pre>
+ * header   int magic, int version, int slotCount, int slotSize, long slotsOffset,
+ *          long framesWritten
+ * index    slotCount entries of long sequence, long timestamp; sequence is -1 while unused
+ * slots    from slotsOffset, slotCount * slotSize bytes, each holding
+ *          long sequence, long timestamp, int width, int height, int yRowStride,
+ *          int uvRowStride, int uvPixelStride, int yLength, int uLength, int vLength,
+ *          then the Y, U and V bytes
+ * </pre>
+ * The strides in a slot header describe the stored planes. {@link YuvRecording} reads a file
+ * back with random access by frame.
+ *
+ * An instance is not safe for concurrent use.
+ */
+public class YuvRecorder {
+    static final int MAGIC = 0x59555652; // "YUVR"
+    static final int VERSION = 1;
+    static final int FILE_HEADER_SIZE = 32;
+    static final int INDEX_ENTRY_SIZE = 16;
+    static final int FRAME_HEADER_SIZE = 48;
+    private static final int PAGE_SIZE = 4096;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final MappedByteBuffer mHeader;
+    private final MappedByteBuffer[] mSlots;
+    private final int mSlotCount;
+    private final int mSlotSize;
+    private long mFramesWritten;
+    private int mRejectedCount;
+
+    /**
+     * Creates, or truncates, {@code file} and reserves {@code slotCount} slots large enough for
+     * frames up to {@code maxWidth x maxHeight}, with chroma pixel strides of 1 or 2.
+     */
+    public YuvRecorder(File file, int maxWidth, int maxHeight, int slotCount) throws IOException {
+        if (maxWidth <= 0 || maxHeight <= 0 || slotCount < 1) {
+            throw new IllegalArgumentException(String.format("Invalid recorder size %dx%d, %d slots",
+                    maxWidth, maxHeight, slotCount));
+        }
+        final long chromaRows = (maxHeight + 1) / 2;
+        final long chromaRowBytes = 2 * ((maxWidth + 1) / 2);
+        final long slotSize = FRAME_HEADER_SIZE + (long) maxWidth * maxHeight + 2 * chromaRows * chromaRowBytes;
+        if (slotSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Frames of " + maxWidth + "x" + maxHeight + " are too large");
+        }
+        mSlotCount = slotCount;
+        mSlotSize = (int) align(slotSize);
+
+        final long headerSize = FILE_HEADER_SIZE + (long) INDEX_ENTRY_SIZE * slotCount;
+        final long slotsOffset = align(headerSize);
+
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        try {
+            mFile.setLength(0);
+            mFile.setLength(slotsOffset + (long) mSlotCount * mSlotSize);
+
+            mHeader = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, headerSize);
+            mHeader.putInt(0, MAGIC);
+            mHeader.putInt(4, VERSION);
+            mHeader.putInt(8, mSlotCount);
+            mHeader.putInt(12, mSlotSize);
+            mHeader.putLong(16, slotsOffset);
+            mHeader.putLong(24, 0);
+            for (int i = 0; i < slotCount; ++i) {
+                mHeader.putLong(FILE_HEADER_SIZE + i * INDEX_ENTRY_SIZE, -1);
+                mHeader.putLong(FILE_HEADER_SIZE + i * INDEX_ENTRY_SIZE + 8, 0);
+            }
+
+            // Mapped per slot, so the file can grow past the 2 GB limit of a single mapping.
+            mSlots = new MappedByteBuffer[mSlotCount];
+            for (int i = 0; i < mSlotCount; ++i) {
+                mSlots[i] = mChannel.map(FileChannel.MapMode.READ_WRITE, slotsOffset + (long) i * mSlotSize, mSlotSize);
+            }
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        } catch (RuntimeException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    private static long align(long size) {
+        return (size + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    /**
+     * Appends {@code frame}, overwriting the oldest frame once the ring is full. Returns false,
+     * without writing anything, if the frame does not fit a slot.
+     */
+    public boolean record(YuvFrame frame) {
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final int uvPixelStride = frame.getUvPixelStride();
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        final int uvRowBytes = (chromaWidth - 1) * uvPixelStride + 1;
+        final long frameSize = FRAME_HEADER_SIZE + (long) width * height + 2L * uvRowBytes * chromaHeight;
+        if (frameSize > mSlotSize) {
+            ++mRejectedCount;
+            return false;
+        }
+
+        final long sequence = mFramesWritten;
+        final int slot = (int) (sequence % mSlotCount);
+        final MappedByteBuffer out = mSlots[slot];
+
+        // Invalidate the index entry first, so a crash mid-copy never leaves a torn frame listed.
+        final int indexEntry = FILE_HEADER_SIZE + slot * INDEX_ENTRY_SIZE;
+        mHeader.putLong(indexEntry, -1);
+
+        out.putLong(0, sequence);
+        out.putLong(8, frame.getTimestamp());
+        out.putInt(16, width);
+        out.putInt(20, height);
+        out.putInt(24, width);
+        out.putInt(28, uvRowBytes);
+        out.putInt(32, uvPixelStride);
+        out.putInt(36, width * height);
+        out.putInt(40, uvRowBytes * chromaHeight);
+        out.putInt(44, uvRowBytes * chromaHeight);
+
+        out.position(FRAME_HEADER_SIZE);
+        YuvConverter.copyRows(frame.getY(), frame.getYRowStride(), width, height, out);
+        YuvConverter.copyRows(frame.getU(), frame.getUvRowStride(), uvRowBytes, chromaHeight, out);
+        YuvConverter.copyRows(frame.getV(), frame.getUvRowStride(), uvRowBytes, chromaHeight, out);
+
+        mHeader.putLong(indexEntry + 8, frame.getTimestamp());
+        mHeader.putLong(indexEntry, sequence);
+        mFramesWritten = sequence + 1;
+        mHeader.putLong(24, mFramesWritten);
+        return true;
+    }
+
+    public long getFramesWritten() {
+        return mFramesWritten;
+    }
+
+    /**
+     * Number of frames that were too large for a slot.
+     */
+    public int getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    public int getSlotCount() {
+        return mSlotCount;
+    }
+
+    /**
+     * Flushes the mapped pages to storage.
+     */
+    public void flush() {
+        mHeader.force();
+        for (MappedByteBuffer slot : mSlots) {
+            slot.force();
+        }
+    }
+
+    public void close() throws IOException {
+        flush();
+        mChannel.close();
+        mFile.close();
+    }
+}
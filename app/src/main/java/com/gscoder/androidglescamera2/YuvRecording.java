@@ -0,0 +1,111 @@
+package com.gscoder.androidglescamera2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read access to a ring file written by {@link YuvRecorder}. Frames are numbered from 0, the
+ * oldest frame still in the ring, and read through the index without scanning the file.
+ *
+ * The returned frames point into the mapped file; nothing is copied. An instance is not safe
+ * for concurrent use.
+ */
+public class YuvRecording {
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mHeader;
+    private final int mSlotCount;
+    private final int mSlotSize;
+    private final long mSlotsOffset;
+    private final long mFirstSequence;
+    private final int mFrameCount;
+    // Slot mappings, created on first access.
+    private final MappedByteBuffer[] mSlots;
+
+    public YuvRecording(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+        try {
+            final ByteBuffer header = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, YuvRecorder.FILE_HEADER_SIZE);
+            if (header.getInt(0) != YuvRecorder.MAGIC || header.getInt(4) != YuvRecorder.VERSION) {
+                throw new IOException(file + " is not a frame recording");
+            }
+            mSlotCount = header.getInt(8);
+            mSlotSize = header.getInt(12);
+            mSlotsOffset = header.getLong(16);
+            final long framesWritten = header.getLong(24);
+
+            mHeader = mChannel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    YuvRecorder.FILE_HEADER_SIZE + (long) YuvRecorder.INDEX_ENTRY_SIZE * mSlotCount);
+            mFrameCount = (int) Math.min(framesWritten, mSlotCount);
+            mFirstSequence = framesWritten - mFrameCount;
+            mSlots = new MappedByteBuffer[mSlotCount];
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Timestamp of frame {@code index}, read from the index alone.
+     */
+    public long getTimestamp(int index) {
+        return mHeader.getLong(indexEntry(index) + 8);
+    }
+
+    /**
+     * Points {@code frame} at the planes of frame {@code index}.
+     *
+     * @throws IOException if the slot no longer holds that frame, for example because the
+     *                     recording was interrupted while it was being written.
+     */
+    public YuvFrame readFrame(int index, YuvFrame frame) throws IOException {
+        final long sequence = mFirstSequence + index;
+        if (mHeader.getLong(indexEntry(index)) != sequence) {
+            throw new IOException("Frame " + index + " is missing from the recording");
+        }
+
+        final int slot = (int) (sequence % mSlotCount);
+        MappedByteBuffer in = mSlots[slot];
+        if (in == null) {
+            in = mChannel.map(FileChannel.MapMode.READ_ONLY, mSlotsOffset + (long) slot * mSlotSize, mSlotSize);
+            mSlots[slot] = in;
+        }
+        final int yLength = in.getInt(36);
+        final int uLength = in.getInt(40);
+        final int vLength = in.getInt(44);
+
+        return frame.set(
+                slice(in, YuvRecorder.FRAME_HEADER_SIZE, yLength),
+                slice(in, YuvRecorder.FRAME_HEADER_SIZE + yLength, uLength),
+                slice(in, YuvRecorder.FRAME_HEADER_SIZE + yLength + uLength, vLength),
+                in.getInt(16), in.getInt(20), in.getInt(24), in.getInt(28), in.getInt(32), in.getLong(8));
+    }
+
+    private int indexEntry(int index) {
+        if (index < 0 || index >= mFrameCount) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + mFrameCount);
+        }
+        final int slot = (int) ((mFirstSequence + index) % mSlotCount);
+        return YuvRecorder.FILE_HEADER_SIZE + slot * YuvRecorder.INDEX_ENTRY_SIZE;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        final ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length).position(offset);
+        return view.slice();
+    }
+
+    public void close() throws IOException {
+        mChannel.close();
+        mFile.close();
+    }
+}
@@ -0,0 +1,198 @@
+package com.gscoder.androidglescamera2;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Writes YUV_420_888 frames straight into model input tensors, without an intermediate
+ * {@code int[]} or {@link android.graphics.Bitmap}.
+ *
+ * Cropping, scaling and rotation come from a {@link YuvTransform}, so a frame goes from its
+ * plane buffers to a normalized RGB tensor of the model's input size in one pass. Channel
+ * normalization, {@code (value - mean) / std}, is done through per-channel lookup tables.
+ *
+ * Output is written with absolute puts starting at the buffer's current position, which is
+ * left unchanged. An instance is not safe for concurrent use.
+ */
+public class YuvTensorConverter {
+    public enum Layout {
+        /** Interleaved channels, index {@code (y * width + x) * 3 + c}. */
+        NHWC,
+        /** Planar channels, index {@code c * height * width + y * width + x}. */
+        NCHW
+    }
+
+    private final YuvTransform mTransform;
+    private final Layout mLayout;
+
+    // Normalized value of every 8 bit channel sample, per channel.
+    private final float[][] mFloatTable = new float[3][256];
+    // Quantized value of every 8 bit channel sample, per channel.
+    private final byte[][] mQuantizedTable = new byte[3][256];
+
+    /**
+     * Creates a converter that writes raw channel values, 0..255.
+     */
+    public YuvTensorConverter(YuvTransform transform, Layout layout) {
+        this(transform, layout, new float[] {0, 0, 0}, new float[] {1, 1, 1});
+    }
+
+    /**
+     * @param mean Per-channel mean, in R, G, B order, subtracted from the 0..255 channel value.
+     * @param std  Per-channel standard deviation, in R, G, B order, dividing the result.
+     */
+    public YuvTensorConverter(YuvTransform transform, Layout layout, float[] mean, float[] std) {
+        if (mean.length != 3 || std.length != 3) {
+            throw new IllegalArgumentException("mean and std need one value per channel");
+        }
+        mTransform = transform;
+        mLayout = layout;
+
+        for (int c = 0; c < 3; ++c) {
+            for (int i = 0; i < 256; ++i) {
+                mFloatTable[c][i] = (i - mean[c]) / std[c];
+            }
+        }
+        setQuantization(1.0f, 0);
+    }
+
+    /**
+     * Sets the affine quantization used by {@link #convertQuantized}: each normalized value is
+     * stored as {@code round(value / scale) + zeroPoint}, clamped to 0..255. The default of
+     * scale 1 and zero point 0 with no normalization stores the raw channel values.
+     */
+    public void setQuantization(float scale, int zeroPoint) {
+        for (int c = 0; c < 3; ++c) {
+            for (int i = 0; i < 256; ++i) {
+                final int q = Math.round(mFloatTable[c][i] / scale) + zeroPoint;
+                mQuantizedTable[c][i] = (byte) Math.max(0, Math.min(255, q));
+            }
+        }
+    }
+
+    public Layout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * Number of tensor elements a frame is written to.
+     */
+    public int getElementCount() {
+        return mTransform.getDstWidth() * mTransform.getDstHeight() * 3;
+    }
+
+    /**
+     * Writes normalized float values.
+     */
+    public void convert(YuvFrame frame, FloatBuffer out, YuvToRgbKernel kernel) {
+        checkCapacity(out.remaining());
+        mTransform.prepare(frame);
+
+        final ByteBuffer yData = frame.getY();
+        final ByteBuffer uData = frame.getU();
+        final ByteBuffer vData = frame.getV();
+        final float[] rTable = mFloatTable[0];
+        final float[] gTable = mFloatTable[1];
+        final float[] bTable = mFloatTable[2];
+        final int width = mTransform.getDstWidth();
+        final int height = mTransform.getDstHeight();
+        final int base = out.position();
+        final boolean planar = mLayout == Layout.NCHW;
+        final int channelStep = planar ? width * height : 1;
+        final int pixelStep = planar ? 1 : 3;
+
+        int i = base;
+        for (int dy = 0; dy < height; ++dy) {
+            for (int dx = 0; dx < width; ++dx) {
+                final int uv = mTransform.uvOffset(dx, dy);
+                final int argb = kernel.yuvToArgb(
+                        yData.get(mTransform.yOffset(dx, dy)) & 0xFF,
+                        uData.get(uv) & 0xFF,
+                        vData.get(uv) & 0xFF);
+                out.put(i, rTable[(argb >> 16) & 0xFF]);
+                out.put(i + channelStep, gTable[(argb >> 8) & 0xFF]);
+                out.put(i + 2 * channelStep, bTable[argb & 0xFF]);
+                i += pixelStep;
+            }
+        }
+    }
+
+    /**
+     * Writes normalized 32 bit floats in the byte order of {@code out}.
+     */
+    public void convert(YuvFrame frame, ByteBuffer out, YuvToRgbKernel kernel) {
+        checkCapacity(out.remaining() / 4);
+        mTransform.prepare(frame);
+
+        final ByteBuffer yData = frame.getY();
+        final ByteBuffer uData = frame.getU();
+        final ByteBuffer vData = frame.getV();
+        final float[] rTable = mFloatTable[0];
+        final float[] gTable = mFloatTable[1];
+        final float[] bTable = mFloatTable[2];
+        final int width = mTransform.getDstWidth();
+        final int height = mTransform.getDstHeight();
+        final int base = out.position();
+        final boolean planar = mLayout == Layout.NCHW;
+        final int channelStep = (planar ? width * height : 1) * 4;
+        final int pixelStep = (planar ? 1 : 3) * 4;
+
+        int i = base;
+        for (int dy = 0; dy < height; ++dy) {
+            for (int dx = 0; dx < width; ++dx) {
+                final int uv = mTransform.uvOffset(dx, dy);
+                final int argb = kernel.yuvToArgb(
+                        yData.get(mTransform.yOffset(dx, dy)) & 0xFF,
+                        uData.get(uv) & 0xFF,
+                        vData.get(uv) & 0xFF);
+                out.putFloat(i, rTable[(argb >> 16) & 0xFF]);
+                out.putFloat(i + channelStep, gTable[(argb >> 8) & 0xFF]);
+                out.putFloat(i + 2 * channelStep, bTable[argb & 0xFF]);
+                i += pixelStep;
+            }
+        }
+    }
+
+    /**
+     * Writes one uint8 per element, see {@link #setQuantization}.
+     */
+    public void convertQuantized(YuvFrame frame, ByteBuffer out, YuvToRgbKernel kernel) {
+        checkCapacity(out.remaining());
+        mTransform.prepare(frame);
+
+        final ByteBuffer yData = frame.getY();
+        final ByteBuffer uData = frame.getU();
+        final ByteBuffer vData = frame.getV();
+        final byte[] rTable = mQuantizedTable[0];
+        final byte[] gTable = mQuantizedTable[1];
+        final byte[] bTable = mQuantizedTable[2];
+        final int width = mTransform.getDstWidth();
+        final int height = mTransform.getDstHeight();
+        final int base = out.position();
+        final boolean planar = mLayout == Layout.NCHW;
+        final int channelStep = planar ? width * height : 1;
+        final int pixelStep = planar ? 1 : 3;
+
+        int i = base;
+        for (int dy = 0; dy < height; ++dy) {
+            for (int dx = 0; dx < width; ++dx) {
+                final int uv = mTransform.uvOffset(dx, dy);
+                final int argb = kernel.yuvToArgb(
+                        yData.get(mTransform.yOffset(dx, dy)) & 0xFF,
+                        uData.get(uv) & 0xFF,
+                        vData.get(uv) & 0xFF);
+                out.put(i, rTable[(argb >> 16) & 0xFF]);
+                out.put(i + channelStep, gTable[(argb >> 8) & 0xFF]);
+                out.put(i + 2 * channelStep, bTable[argb & 0xFF]);
+                i += pixelStep;
+            }
+        }
+    }
+
+    private void checkCapacity(int available) {
+        if (available < getElementCount()) {
+            throw new IllegalArgumentException(String.format("Tensor needs %d elements, buffer has room for %d",
+                    getElementCount(), available));
+        }
+    }
+}
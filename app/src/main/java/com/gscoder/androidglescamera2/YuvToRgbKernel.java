@@ -0,0 +1,18 @@
+package com.gscoder.androidglescamera2;
+
+/**
+ * Converts a single YUV sample triple to a packed ARGB_8888 pixel.
+ *
+ * Implementations are stateless once constructed and may be shared between threads.
+ *
+ * @see YuvToRgbKernels
+ */
+public interface YuvToRgbKernel {
+    /**
+     * @param nY Luma sample, 0..255.
+     * @param nU Cb sample, 0..255.
+     * @param nV Cr sample, 0..255.
+     * @return Opaque ARGB_8888 pixel.
+     */
+    int yuvToArgb(int nY, int nU, int nV);
+}
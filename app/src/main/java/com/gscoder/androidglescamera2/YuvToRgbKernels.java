@@ -0,0 +1,164 @@
+package com.gscoder.androidglescamera2;
+
+/**
+ * Factory for the available {@link YuvToRgbKernel} implementations.
+ *
+ * All kernels of the same {@link YuvColorSpace} produce bit-identical pixels, they only differ
+ * in how the work is done:
+ * <ul>
+ *     <li>{@link #fixedPoint} clamps with {@code Math.min/max}, the original formula.</li>
+ *     <li>{@link #branchless} clamps with sign-bit masks, no compare per channel.</li>
+ *     <li>{@link #lookupTable} replaces every multiply and clamp with table reads.</li>
+ * </ul>
+ */
+public final class YuvToRgbKernels {
+    // This value is 2 ^ 18 - 1, and is used to clamp the RGB values before their ranges
+    // are normalized to eight bits.
+    private static final int kMaxChannelValue = 262143;
+
+    /**
+     * The kernel {@link ImageUtils} has always used: BT.601 limited range, fixed point.
+     */
+    public static final YuvToRgbKernel DEFAULT = fixedPoint(YuvColorSpace.BT601_LIMITED);
+
+    private YuvToRgbKernels() {
+    }
+
+    public static YuvToRgbKernel fixedPoint(YuvColorSpace colorSpace) {
+        return new FixedPointKernel(colorSpace);
+    }
+
+    public static YuvToRgbKernel branchless(YuvColorSpace colorSpace) {
+        return new BranchlessKernel(colorSpace);
+    }
+
+    public static YuvToRgbKernel lookupTable(YuvColorSpace colorSpace) {
+        return new LookupTableKernel(colorSpace);
+    }
+
+    private static final class FixedPointKernel implements YuvToRgbKernel {
+        private final int yOffset;
+        private final int yCoeff;
+        private final int vToR;
+        private final int uToG;
+        private final int vToG;
+        private final int uToB;
+
+        FixedPointKernel(YuvColorSpace colorSpace) {
+            yOffset = colorSpace.yOffset;
+            yCoeff = colorSpace.yCoeff;
+            vToR = colorSpace.vToR;
+            uToG = colorSpace.uToG;
+            vToG = colorSpace.vToG;
+            uToB = colorSpace.uToB;
+        }
+
+        @Override
+        public int yuvToArgb(int nY, int nU, int nV) {
+            nY -= yOffset;
+            nU -= 128;
+            nV -= 128;
+            if (nY < 0) nY = 0;
+
+            // We do the conversion in integer because some Android devices do not have
+            // floating point in hardware.
+            int nR = yCoeff * nY + vToR * nV;
+            int nG = yCoeff * nY - vToG * nV - uToG * nU;
+            int nB = yCoeff * nY + uToB * nU;
+
+            nR = Math.min(kMaxChannelValue, Math.max(0, nR));
+            nG = Math.min(kMaxChannelValue, Math.max(0, nG));
+            nB = Math.min(kMaxChannelValue, Math.max(0, nB));
+
+            nR = (nR >> 10) & 0xff;
+            nG = (nG >> 10) & 0xff;
+            nB = (nB >> 10) & 0xff;
+
+            return 0xff000000 | (nR << 16) | (nG << 8) | nB;
+        }
+    }
+
+    private static final class BranchlessKernel implements YuvToRgbKernel {
+        private final int yOffset;
+        private final int yCoeff;
+        private final int vToR;
+        private final int uToG;
+        private final int vToG;
+        private final int uToB;
+
+        BranchlessKernel(YuvColorSpace colorSpace) {
+            yOffset = colorSpace.yOffset;
+            yCoeff = colorSpace.yCoeff;
+            vToR = colorSpace.vToR;
+            uToG = colorSpace.uToG;
+            vToG = colorSpace.vToG;
+            uToB = colorSpace.uToB;
+        }
+
+        @Override
+        public int yuvToArgb(int nY, int nU, int nV) {
+            nY -= yOffset;
+            nU -= 128;
+            nV -= 128;
+            nY &= ~(nY >> 31);
+
+            final int y = yCoeff * nY;
+            final int nR = clamp(y + vToR * nV);
+            final int nG = clamp(y - vToG * nV - uToG * nU);
+            final int nB = clamp(y + uToB * nU);
+
+            // Channels are in 0..2^18-1, so bits 10..17 are the eight bit result.
+            return 0xff000000 | ((nR << 6) & 0xff0000) | ((nG >> 2) & 0xff00) | (nB >> 10);
+        }
+
+        private static int clamp(int value) {
+            // Negative values have the sign bit set and become 0, values above the maximum
+            // make (max - value) negative and saturate to the maximum.
+            value &= ~(value >> 31);
+            return (value | ((kMaxChannelValue - value) >> 31)) & kMaxChannelValue;
+        }
+    }
+
+    private static final class LookupTableKernel implements YuvToRgbKernel {
+        private final int[] yTable = new int[256];
+        private final int[] vToRTable = new int[256];
+        private final int[] uvToGTableU = new int[256];
+        private final int[] uvToGTableV = new int[256];
+        private final int[] uToBTable = new int[256];
+
+        // Maps (channel >> 10) to 0..255. Anything negative saturates to 0 and anything at or
+        // above 256 saturates to 255, exactly like clamping to kMaxChannelValue first.
+        private final int[] clampTable;
+        private final int clampOffset;
+
+        LookupTableKernel(YuvColorSpace colorSpace) {
+            for (int i = 0; i < 256; ++i) {
+                yTable[i] = colorSpace.yCoeff * Math.max(0, i - colorSpace.yOffset);
+                vToRTable[i] = colorSpace.vToR * (i - 128);
+                uvToGTableU[i] = -colorSpace.uToG * (i - 128);
+                uvToGTableV[i] = -colorSpace.vToG * (i - 128);
+                uToBTable[i] = colorSpace.uToB * (i - 128);
+            }
+
+            final int yMax = yTable[255];
+            int min = Math.min(vToRTable[0], Math.min(uToBTable[0], uvToGTableU[255] + uvToGTableV[255]));
+            int max = yMax + Math.max(vToRTable[255], Math.max(uToBTable[255], uvToGTableU[0] + uvToGTableV[0]));
+
+            clampOffset = -(min >> 10);
+            clampTable = new int[(max >> 10) + clampOffset + 1];
+            for (int i = 0; i < clampTable.length; ++i) {
+                clampTable[i] = Math.min(255, Math.max(0, i - clampOffset));
+            }
+        }
+
+        @Override
+        public int yuvToArgb(int nY, int nU, int nV) {
+            final int y = yTable[nY];
+            final int nR = clampTable[((y + vToRTable[nV]) >> 10) + clampOffset];
+            final int nG = clampTable[((y + uvToGTableU[nU] + uvToGTableV[nV]) >> 10) + clampOffset];
+            final int nB = clampTable[((y + uToBTable[nU]) >> 10) + clampOffset];
+
+            return 0xff000000 | (nR << 16) | (nG << 8) | nB;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.gscoder.androidglescamera2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts a YUV_420_888 frame to a destination rectangle of arbitrary size in a single pass,
+ * center-cropping, scaling, rotating and optionally mirroring on the way.
+ *
+ * Only the source samples that land in the destination are read, using nearest neighbour
+ * sampling. This replaces converting the whole frame and then running
+ * {@link ImageUtils#cropAndRescaleBitmap} or {@link ImageUtils#getTransformationMatrix} through
+ * a Canvas.
+ *
+ * The sampling positions are computed once per instance, the buffer offsets once per distinct
+ * set of plane strides. An instance is not safe for concurrent use.
+ */
+public class YuvTransform {
+    private final int mSrcWidth;
+    private final int mSrcHeight;
+    private final int mDstWidth;
+    private final int mDstHeight;
+    private final int mRotation;
+    private final boolean mMirror;
+    private final boolean mTranspose;
+
+    // Source coordinate sampled by each destination column and row. When the rotation transposes
+    // the image, columns walk the source vertically and rows walk it horizontally.
+    private final int[] mColCoord;
+    private final int[] mRowCoord;
+
+    // Plane offsets derived from the coordinates above for the current strides.
+    private final int[] mColY;
+    private final int[] mColUV;
+    private final int[] mRowY;
+    private final int[] mRowUV;
+    private int mYRowStride = -1;
+    private int mUvRowStride = -1;
+    private int mUvPixelStride = -1;
+
+    /**
+     * @param rotation Clockwise rotation applied to the source, one of 0, 90, 180 or 270.
+     * @param mirror   Whether to flip the result horizontally, after rotating.
+     */
+    public YuvTransform(int srcWidth, int srcHeight, int dstWidth, int dstHeight, int rotation, boolean mirror) {
+        if (srcWidth <= 0 || srcHeight <= 0 || dstWidth <= 0 || dstHeight <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid sizes %dx%d -> %dx%d",
+                    srcWidth, srcHeight, dstWidth, dstHeight));
+        }
+        rotation = ((rotation % 360) + 360) % 360;
+        if (rotation % 90 != 0) {
+            throw new IllegalArgumentException("rotation must be a multiple of 90, was " + rotation);
+        }
+
+        mSrcWidth = srcWidth;
+        mSrcHeight = srcHeight;
+        mDstWidth = dstWidth;
+        mDstHeight = dstHeight;
+        mRotation = rotation;
+        mMirror = mirror;
+        mTranspose = rotation == 90 || rotation == 270;
+
+        // Size of the source once rotated, center-cropped to the destination aspect ratio.
+        final int rotatedWidth = mTranspose ? srcHeight : srcWidth;
+        final int rotatedHeight = mTranspose ? srcWidth : srcHeight;
+        final double scale = Math.max(dstWidth / (double) rotatedWidth, dstHeight / (double) rotatedHeight);
+        final double cropWidth = dstWidth / scale;
+        final double cropHeight = dstHeight / scale;
+        final double cropLeft = (rotatedWidth - cropWidth) / 2;
+        final double cropTop = (rotatedHeight - cropHeight) / 2;
+
+        mColCoord = new int[dstWidth];
+        for (int dx = 0; dx < dstWidth; ++dx) {
+            int rx = sample(cropLeft, cropWidth / dstWidth, dx, rotatedWidth);
+            if (mirror) {
+                rx = rotatedWidth - 1 - rx;
+            }
+            mColCoord[dx] = rx;
+        }
+
+        mRowCoord = new int[dstHeight];
+        for (int dy = 0; dy < dstHeight; ++dy) {
+            mRowCoord[dy] = sample(cropTop, cropHeight / dstHeight, dy, rotatedHeight);
+        }
+
+        // Map rotated coordinates back to source coordinates.
+        switch (rotation) {
+            case 90:
+                // Rotated (rx, ry) comes from source (ry, srcHeight - 1 - rx).
+                for (int dx = 0; dx < dstWidth; ++dx) mColCoord[dx] = srcHeight - 1 - mColCoord[dx];
+                break;
+            case 180:
+                for (int dx = 0; dx < dstWidth; ++dx) mColCoord[dx] = srcWidth - 1 - mColCoord[dx];
+                for (int dy = 0; dy < dstHeight; ++dy) mRowCoord[dy] = srcHeight - 1 - mRowCoord[dy];
+                break;
+            case 270:
+                // Rotated (rx, ry) comes from source (srcWidth - 1 - ry, rx).
+                for (int dy = 0; dy < dstHeight; ++dy) mRowCoord[dy] = srcWidth - 1 - mRowCoord[dy];
+                break;
+            default:
+                break;
+        }
+
+        mColY = new int[dstWidth];
+        mColUV = new int[dstWidth];
+        mRowY = new int[dstHeight];
+        mRowUV = new int[dstHeight];
+    }
+
+    private static int sample(double origin, double step, int index, int limit) {
+        final int coord = (int) (origin + (index + 0.5) * step);
+        return Math.max(0, Math.min(limit - 1, coord));
+    }
+
+    public int getDstWidth() {
+        return mDstWidth;
+    }
+
+    public int getDstHeight() {
+        return mDstHeight;
+    }
+
+    public int getRotation() {
+        return mRotation;
+    }
+
+    public boolean isMirrored() {
+        return mMirror;
+    }
+
+    /**
+     * Recomputes the plane offsets if the strides of {@code frame} differ from the last frame.
+     */
+    void prepare(YuvFrame frame) {
+        if (frame.getWidth() != mSrcWidth || frame.getHeight() != mSrcHeight) {
+            throw new IllegalArgumentException(String.format("Expected a %dx%d frame, got %dx%d",
+                    mSrcWidth, mSrcHeight, frame.getWidth(), frame.getHeight()));
+        }
+        final int yRowStride = frame.getYRowStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+        if (yRowStride == mYRowStride && uvRowStride == mUvRowStride && uvPixelStride == mUvPixelStride) {
+            return;
+        }
+
+        // Columns and rows each contribute one part of the plane offset; which part depends on
+        // whether they walk the source horizontally or vertically.
+        for (int dx = 0; dx < mDstWidth; ++dx) {
+            final int c = mColCoord[dx];
+            mColY[dx] = mTranspose ? c * yRowStride : c;
+            mColUV[dx] = mTranspose ? (c >> 1) * uvRowStride : (c >> 1) * uvPixelStride;
+        }
+        for (int dy = 0; dy < mDstHeight; ++dy) {
+            final int r = mRowCoord[dy];
+            mRowY[dy] = mTranspose ? r : r * yRowStride;
+            mRowUV[dy] = mTranspose ? (r >> 1) * uvPixelStride : (r >> 1) * uvRowStride;
+        }
+
+        mYRowStride = yRowStride;
+        mUvRowStride = uvRowStride;
+        mUvPixelStride = uvPixelStride;
+    }
+
+    int yOffset(int dx, int dy) {
+        return mRowY[dy] + mColY[dx];
+    }
+
+    int uvOffset(int dx, int dy) {
+        return mRowUV[dy] + mColUV[dx];
+    }
+
+    /**
+     * Converts {@code frame} into {@code out}, which receives {@code dstWidth * dstHeight}
+     * ARGB_8888 pixels in row-major order.
+     */
+    public void convert(YuvFrame frame, int[] out, YuvToRgbKernel kernel) {
+        prepare(frame);
+
+        final ByteBuffer yData = frame.getY();
+        final ByteBuffer uData = frame.getU();
+        final ByteBuffer vData = frame.getV();
+        final int[] colY = mColY;
+        final int[] colUV = mColUV;
+
+        int i = 0;
+        for (int dy = 0; dy < mDstHeight; ++dy) {
+            final int rowY = mRowY[dy];
+            final int rowUV = mRowUV[dy];
+            for (int dx = 0; dx < mDstWidth; ++dx) {
+                final int uv = rowUV + colUV[dx];
+                out[i++] = kernel.yuvToArgb(
+                        yData.get(rowY + colY[dx]) & 0xFF,
+                        uData.get(uv) & 0xFF,
+                        vData.get(uv) & 0xFF);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.gscoder.androidglescamera2.benchmark;
+
+import com.gscoder.androidglescamera2.FrameStats;
+import com.gscoder.androidglescamera2.YuvColorSpace;
+import com.gscoder.androidglescamera2.YuvConverter;
+import com.gscoder.androidglescamera2.YuvFrame;
+import com.gscoder.androidglescamera2.YuvToRgbKernel;
+import com.gscoder.androidglescamera2.YuvToRgbKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full frame YUV_420_888 to ARGB_8888 conversion, per kernel, from heap copies of the planes
+ * and straight from the plane buffers, with and without collecting frame statistics.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConversionBenchmark extends FrameState {
+    public enum Kernel {
+        FIXED_POINT, BRANCHLESS, LOOKUP_TABLE
+    }
+
+    @Param({"FIXED_POINT", "BRANCHLESS", "LOOKUP_TABLE"})
+    public Kernel kernel;
+
+    private YuvToRgbKernel mKernel;
+    private final FrameStats mStats = new FrameStats();
+
+    @Setup
+    public void setUpKernel() {
+        switch (kernel) {
+            case BRANCHLESS:
+                mKernel = YuvToRgbKernels.branchless(YuvColorSpace.BT601_LIMITED);
+                break;
+            case LOOKUP_TABLE:
+                mKernel = YuvToRgbKernels.lookupTable(YuvColorSpace.BT601_LIMITED);
+                break;
+            default:
+                mKernel = YuvToRgbKernels.fixedPoint(YuvColorSpace.BT601_LIMITED);
+                break;
+        }
+    }
+
+    @Benchmark
+    public int[] byteArrays() {
+        final YuvFrame f = frame;
+        YuvConverter.convertYUV420ToARGB8888(planes[0], planes[1], planes[2], f.getWidth(), f.getHeight(),
+                f.getYRowStride(), f.getUvRowStride(), f.getUvPixelStride(), argb, mKernel);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] planeBuffers() {
+        YuvConverter.convertYUV420ToARGB8888(frame, argb, mKernel);
+        return argb;
+    }
+
+    @Benchmark
+    public FrameStats planeBuffersWithStats() {
+        YuvConverter.convertYUV420ToARGB8888(frame, argb, mKernel, mStats);
+        return mStats;
+    }
+}
@@ -0,0 +1,35 @@
+package com.gscoder.androidglescamera2.benchmark;
+
+import com.gscoder.androidglescamera2.YuvFrame;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A synthetic preview frame for each combination of common preview size, chroma layout and
+ * row padding.
+ */
+@State(Scope.Thread)
+public class FrameState {
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    @Param({"PLANAR", "SEMI_PLANAR"})
+    public SyntheticFrames.Layout layout;
+
+    @Param({"64"})
+    public int rowPadding;
+
+    public YuvFrame frame;
+    public byte[][] planes;
+    public int[] argb;
+
+    @Setup
+    public void setUpFrame() {
+        frame = SyntheticFrames.create(size, layout, rowPadding, 42);
+        planes = SyntheticFrames.toArrays(frame);
+        argb = new int[frame.getWidth() * frame.getHeight()];
+    }
+}
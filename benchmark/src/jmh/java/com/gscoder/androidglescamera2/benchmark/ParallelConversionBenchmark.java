@@ -0,0 +1,42 @@
+package com.gscoder.androidglescamera2.benchmark;
+
+import com.gscoder.androidglescamera2.ParallelYuvConverter;
+import com.gscoder.androidglescamera2.YuvToRgbKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row-band parallel conversion from the plane buffers, per thread count.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParallelConversionBenchmark extends FrameState {
+    @Param({"2", "4"})
+    public int threads;
+
+    private ParallelYuvConverter mConverter;
+
+    @Setup
+    public void setUpConverter() {
+        mConverter = new ParallelYuvConverter(threads);
+    }
+
+    @TearDown
+    public void tearDownConverter() {
+        mConverter.shutdown();
+    }
+
+    @Benchmark
+    public int[] planeBuffers() {
+        mConverter.convertYUV420ToARGB8888(frame, argb, YuvToRgbKernels.DEFAULT);
+        return argb;
+    }
+}
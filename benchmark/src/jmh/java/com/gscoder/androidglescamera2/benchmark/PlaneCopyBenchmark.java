@@ -0,0 +1,48 @@
+package com.gscoder.androidglescamera2.benchmark;
+
+import com.gscoder.androidglescamera2.YuvConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame plane copies: the heap copy {@code fillBytes} makes of all three planes, the
+ * luma-only extraction, and the buffer size computation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlaneCopyBenchmark extends FrameState {
+    private byte[] mLuma;
+
+    @Setup
+    public void setUpLuma() {
+        mLuma = new byte[frame.getWidth() * frame.getHeight()];
+    }
+
+    @Benchmark
+    public byte[][] fillBytes() {
+        frame.getY().clear();
+        frame.getU().clear();
+        frame.getV().clear();
+        planes[0] = YuvConverter.fillBytes(frame.getY(), planes[0]);
+        planes[1] = YuvConverter.fillBytes(frame.getU(), planes[1]);
+        planes[2] = YuvConverter.fillBytes(frame.getV(), planes[2]);
+        return planes;
+    }
+
+    @Benchmark
+    public byte[] extractLuma() {
+        YuvConverter.extractLuma(frame, mLuma);
+        return mLuma;
+    }
+
+    @Benchmark
+    public int getYUVByteSize() {
+        return YuvConverter.getYUVByteSize(frame.getWidth(), frame.getHeight());
+    }
+}
@@ -0,0 +1,84 @@
+package com.gscoder.androidglescamera2.benchmark;
+
+import com.gscoder.androidglescamera2.YuvFrame;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Builds YUV_420_888 frames laid out the way camera HALs deliver them, backed by direct buffers.
+ */
+public final class SyntheticFrames {
+    public enum Layout {
+        /** Separate U and V planes, pixel stride 1 (I420). */
+        PLANAR,
+        /** U and V interleaved in one buffer, pixel stride 2 (NV12). */
+        SEMI_PLANAR
+    }
+
+    private SyntheticFrames() {
+    }
+
+    /**
+     * @param size       Frame size as {@code WIDTHxHEIGHT}.
+     * @param rowPadding Bytes of padding at the end of every luma row.
+     */
+    public static YuvFrame create(String size, Layout layout, int rowPadding, long seed) {
+        final String[] dimensions = size.split("x");
+        final int width = Integer.parseInt(dimensions[0]);
+        final int height = Integer.parseInt(dimensions[1]);
+        final int uvWidth = (width + 1) / 2;
+        final int uvHeight = (height + 1) / 2;
+        final Random random = new Random(seed);
+
+        final int yRowStride = width + rowPadding;
+        final ByteBuffer y = randomBuffer(yRowStride * height, random);
+
+        if (layout == Layout.PLANAR) {
+            final int uvRowStride = uvWidth + rowPadding / 2;
+            final ByteBuffer u = randomBuffer(uvRowStride * uvHeight, random);
+            final ByteBuffer v = randomBuffer(uvRowStride * uvHeight, random);
+            return new YuvFrame().set(y, u, v, width, height, yRowStride, uvRowStride, 1, 0);
+        }
+
+        // Both chroma planes are views of one interleaved buffer, offset by one byte.
+        final int uvRowStride = yRowStride;
+        final ByteBuffer uv = randomBuffer(uvRowStride * uvHeight, random);
+        final ByteBuffer u = slice(uv, 0, uv.capacity() - 1);
+        final ByteBuffer v = slice(uv, 1, uv.capacity() - 1);
+        return new YuvFrame().set(y, u, v, width, height, yRowStride, uvRowStride, 2, 0);
+    }
+
+    /**
+     * Copies the planes of {@code frame} to heap arrays, as {@code ImageUtils.fillBytes} does.
+     */
+    public static byte[][] toArrays(YuvFrame frame) {
+        return new byte[][] {
+                toArray(frame.getY()),
+                toArray(frame.getU()),
+                toArray(frame.getV()),
+        };
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.capacity()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer randomBuffer(int capacity, Random random) {
+        final byte[] bytes = new byte[capacity];
+        random.nextBytes(bytes);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        buffer.put(bytes);
+        buffer.clear();
+        return buffer;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+}
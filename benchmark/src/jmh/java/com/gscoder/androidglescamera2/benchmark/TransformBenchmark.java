@@ -0,0 +1,64 @@
+package com.gscoder.androidglescamera2.benchmark;
+
+import com.gscoder.androidglescamera2.YuvDownscaler;
+import com.gscoder.androidglescamera2.YuvTensorConverter;
+import com.gscoder.androidglescamera2.YuvToRgbKernels;
+import com.gscoder.androidglescamera2.YuvTransform;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The fused transforms that replace full-frame conversion followed by a Canvas transform:
+ * crop, scale and rotate to a 224x224 model input, 2x YUV downscaling, and direct tensor output.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransformBenchmark extends FrameState {
+    private static final int INPUT_SIZE = 224;
+
+    private YuvTransform mTransform;
+    private YuvDownscaler mDownscaler;
+    private YuvTensorConverter mTensorConverter;
+    private int[] mInputPixels;
+    private int[] mDownscaledPixels;
+    private FloatBuffer mTensor;
+
+    @Setup
+    public void setUpTransforms() {
+        mTransform = new YuvTransform(frame.getWidth(), frame.getHeight(), INPUT_SIZE, INPUT_SIZE, 90, false);
+        mDownscaler = YuvDownscaler.byFactor(frame.getWidth(), frame.getHeight(), 2);
+        mTensorConverter = new YuvTensorConverter(mTransform, YuvTensorConverter.Layout.NHWC,
+                new float[] {127.5f, 127.5f, 127.5f}, new float[] {127.5f, 127.5f, 127.5f});
+        mInputPixels = new int[INPUT_SIZE * INPUT_SIZE];
+        mDownscaledPixels = new int[mDownscaler.getDstWidth() * mDownscaler.getDstHeight()];
+        mTensor = ByteBuffer.allocateDirect(mTensorConverter.getElementCount() * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    @Benchmark
+    public int[] cropScaleRotate() {
+        mTransform.convert(frame, mInputPixels, YuvToRgbKernels.DEFAULT);
+        return mInputPixels;
+    }
+
+    @Benchmark
+    public int[] downscale2x() {
+        mDownscaler.convert(frame, mDownscaledPixels, YuvToRgbKernels.DEFAULT);
+        return mDownscaledPixels;
+    }
+
+    @Benchmark
+    public FloatBuffer tensor() {
+        mTensorConverter.convert(frame, mTensor, YuvToRgbKernels.DEFAULT);
+        return mTensor;
+    }
+}